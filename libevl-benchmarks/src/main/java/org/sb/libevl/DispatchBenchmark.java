@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link DscPanel#stateHandler} over the {@link PacketMix#panel() panel mix}, applied inline so the
+ * handlers rather than the hand off are measured.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark
+{
+    /** subscribers to the panel's notifications, which decide whether notifications are built at all */
+    @Param({"0", "1"})
+    public int subscribers;
+
+    private DscPanel panel;
+    private Packet[] mix;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        panel = new DscPanel(null, PanelShards.inline());
+        for(int i = 0; i < subscribers; i++)
+            panel.notifications().subscribe(n -> {}, NotificationBus.DEFAULT_CAPACITY, NotificationBus.Overflow.DROP_OLDEST);
+        mix = PacketMix.panel();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        panel.close();
+    }
+
+    @Benchmark
+    public Boolean dispatch()
+    {
+        final Packet pkt = mix[next];
+        next = next + 1 == mix.length ? 0 : next + 1;
+        return panel.stateHandler.apply(pkt);
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * An {@link EvictingQueue} with several producers evicting and a consumer polling.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvictingQueueBenchmark
+{
+    private final EvictingQueue<Packet> queue = new EvictingQueue<>(64, pkt -> {});
+    private final Packet pkt = new Packet(609, "001");
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public boolean offer()
+    {
+        return queue.offer(pkt);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Packet poll()
+    {
+        return queue.poll();
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(1)
+    public Packet offerPoll()
+    {
+        queue.offer(pkt);
+        return queue.poll();
+    }
+}
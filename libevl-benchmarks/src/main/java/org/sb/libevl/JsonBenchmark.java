@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering a panel with 64 zones as json: unchanged, i.e. from the cache, after one zone changed, and
+ * streamed into a buffer; and the {@link JsonHelper} building blocks.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark
+{
+    private DscPanel panel;
+    private final Packet open = new Packet(609, "033"), close = new Packet(610, "033");
+    private boolean opened;
+    private final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+
+    @Setup
+    public void setup()
+    {
+        panel = new DscPanel(null, PanelShards.inline());
+        for(int z = 1; z <= 64; z++) panel.stateHandler.apply(new Packet(z % 3 == 0 ? 609 : 610, String.format("%03d", z)));
+        for(Packet pkt : PacketMix.panel()) panel.stateHandler.apply(pkt);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        panel.close();
+    }
+
+    @Benchmark
+    public String cached()
+    {
+        return panel.toJson();
+    }
+
+    @Benchmark
+    public String oneZoneChanged()
+    {
+        panel.stateHandler.apply((opened = !opened) ? open : close);
+        return panel.toJson();
+    }
+
+    @Benchmark
+    public ByteBuffer streamed() throws IOException
+    {
+        buf.clear();
+        panel.writeJson(new JsonWriter(buf));
+        return buf;
+    }
+
+    @Benchmark
+    public String helper()
+    {
+        return JsonHelper.obj(JsonHelper.json("id", 33), JsonHelper.json("state", DscPanel.ZoneState.OPEN),
+                              JsonHelper.json("alarm", DscPanel.AlarmState.NORMAL));
+    }
+}
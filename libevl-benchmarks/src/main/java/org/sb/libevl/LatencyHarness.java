@@ -0,0 +1,268 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Measures how long a zone change takes from the socket to a subscriber, stage by stage, at increasing
+ * offered loads: {@code LatencyHarness [rates per second, e.g. 1000,10000] [seconds per rate]}.
+ * <p>
+ * A fake panel on loopback sends zone open and close packets at the offered rate, noting when it writes each
+ * one. A {@link StageProbe} notes when the packet is decoded, taken up by the panel's updater, applied and its
+ * notification queued, and a subscriber when it is delivered. Every zone toggles on each packet, so none are
+ * suppressed. A zone's next packet is not written until its last one has been delivered, so only one packet
+ * per zone is in flight at a time and each delivery is matched with its own packet. The total is measured from
+ * when a packet was due at the offered rate rather than when it was written, so any time spent waiting on the
+ * zone, or on the socket, counts as coordinated omission.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class LatencyHarness
+{
+    private static final int ZONES = 64;
+
+    private static final String[] STAGES = {"decode", "dispatch", "apply", "enqueue", "delivery", "total"};
+
+    private static final int DUE = 0, INJECTED = 1, DECODED = 2, DISPATCHED = 3, APPLIED = 4, ENQUEUED = 5,
+                             IN_FLIGHT = 6, SLOTS = 7;
+
+    /** per zone, the time it passed each stage */
+    private final AtomicLongArray times = new AtomicLongArray((ZONES + 1) * SLOTS);
+
+    private final Histogram[] histograms = new Histogram[STAGES.length];
+
+    /** the zones the fake panel last reported open, kept across runs so every packet changes state */
+    private final boolean[] isOpen = new boolean[ZONES + 1];
+
+    private volatile boolean recording;
+
+    private LatencyHarness()
+    {
+        for(int i = 0; i < histograms.length; i++) histograms[i] = new Histogram(TimeUnit.SECONDS.toNanos(10), 3);
+    }
+
+    private static int zone(Packet pkt)
+    {
+        final int code = pkt.getCmdCode();
+        return code == 609 || code == 610 ? Integer.parseInt(pkt.getData()) : -1;
+    }
+
+    private final StageProbe probe = new StageProbe()
+    {
+        @Override
+        public void packet(Stage stage, Packet pkt, long nanos)
+        {
+            final int zone = zone(pkt);
+            if(zone < 0) return;
+            times.set(zone * SLOTS + (stage == Stage.DECODED ? DECODED : stage == Stage.DISPATCHED ? DISPATCHED : APPLIED),
+                      nanos);
+        }
+
+        @Override
+        public void enqueued(Notification n, long nanos)
+        {
+            if(n.isZone()) times.set(n.entity * SLOTS + ENQUEUED, nanos);
+        }
+    };
+
+    private void delivered(Notification n)
+    {
+        final long now = System.nanoTime();
+        if(!n.isZone()) return;
+        final int base = n.entity * SLOTS;
+        final long due = times.get(base + DUE), injected = times.get(base + INJECTED),
+                   decoded = times.get(base + DECODED), dispatched = times.get(base + DISPATCHED),
+                   enqueued = times.get(base + ENQUEUED);
+        // read the stamps before letting the next packet for the zone go
+        times.set(base + IN_FLIGHT, 0);
+        if(!recording) return;
+        record(0, decoded - injected);
+        record(1, dispatched - decoded);
+        // applied is stamped after the snapshot is published, which may be after delivery
+        final long applied = times.get(base + APPLIED);
+        if(applied > dispatched) record(2, applied - dispatched);
+        // so is enqueued, once the subscribers have been offered it
+        if(enqueued > dispatched)
+        {
+            record(3, enqueued - dispatched);
+            record(4, now - enqueued);
+        }
+        record(5, now - due);
+    }
+
+    private void record(int stage, long nanos)
+    {
+        if(nanos >= 0) histograms[stage].recordValue(Math.min(nanos, histograms[stage].getHighestTrackableValue()));
+    }
+
+    /**
+     * A panel that logs in anybody and acks every command.
+     */
+    private static class FakePanel implements AutoCloseable
+    {
+        private final ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        private Socket sock;
+        private OutputStream out;
+
+        FakePanel() throws IOException
+        {
+        }
+
+        void accept() throws IOException
+        {
+            sock = server.accept();
+            sock.setTcpNoDelay(true);
+            out = sock.getOutputStream();
+            final BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream(), StandardCharsets.US_ASCII));
+            write(new Packet(505, "3"));
+            in.readLine();
+            write(new Packet(500, "005"));
+            write(new Packet(505, "1"));
+            final Thread acker = new Thread(() -> {
+                try
+                {
+                    String line;
+                    while((line = in.readLine()) != null)
+                        write(new Packet(500, String.format("%03d", Packet.deserialize(line).getCmdCode())));
+                }
+                catch(IOException e)
+                {
+                }
+            }, "fake-panel-acker");
+            acker.setDaemon(true);
+            acker.start();
+        }
+
+        synchronized void write(byte[] pkt) throws IOException
+        {
+            out.write(pkt);
+        }
+
+        void write(Packet pkt) throws IOException
+        {
+            write(bytes(pkt));
+        }
+
+        static byte[] bytes(Packet pkt)
+        {
+            return (pkt.serialize() + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        int port()
+        {
+            return server.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            server.close();
+            if(sock != null) sock.close();
+        }
+    }
+
+    private void run(FakePanel panel, int rate, int seconds, boolean report) throws IOException
+    {
+        final byte[][] open = new byte[ZONES + 1][], closed = new byte[ZONES + 1][];
+        for(int z = 1; z <= ZONES; z++)
+        {
+            open[z] = FakePanel.bytes(new Packet(609, String.format("%03d", z)));
+            closed[z] = FakePanel.bytes(new Packet(610, String.format("%03d", z)));
+        }
+        for(Histogram h : histograms) h.reset();
+        final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        recording = report;
+        final long start = System.nanoTime(), end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long next = start;
+        for(long n = 0; next < end; n++, next = start + n * interval)
+        {
+            long now;
+            while((now = System.nanoTime()) < next)
+                if(next - now > 50000) LockSupport.parkNanos(next - now - 50000);
+            final int zone = (int)(n % ZONES) + 1, base = zone * SLOTS;
+            while(times.get(base + IN_FLIGHT) != 0) Thread.yield();
+            times.set(base + DUE, next);
+            times.set(base + INJECTED, System.nanoTime());
+            times.set(base + IN_FLIGHT, 1);
+            isOpen[zone] = !isOpen[zone];
+            panel.write(isOpen[zone] ? open[zone] : closed[zone]);
+        }
+        try
+        {
+            Thread.sleep(200);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        recording = false;
+        if(report) report(rate);
+    }
+
+    private void report(int rate)
+    {
+        System.out.printf("%n%,d packets/s, %,d delivered%n", rate, histograms[0].getTotalCount());
+        System.out.printf("%-10s %10s %10s %10s %10s%n", "stage (us)", "p50", "p99", "p99.9", "max");
+        for(int i = 0; i < STAGES.length; i++)
+        {
+            final Histogram h = histograms[i];
+            System.out.printf("%-10s %10.1f %10.1f %10.1f %10.1f%n", STAGES[i],
+                                h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                                h.getValueAtPercentile(99.9) / 1000.0, h.getMaxValue() / 1000.0);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final String[] rates = (args.length > 0 ? args[0] : "1000,5000,10000,20000,50000").split(",");
+        final int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final LatencyHarness harness = new LatencyHarness();
+        final EvlConnectionManager mgr = new EvlConnectionManager(1);
+        final DscPanel panel = new DscPanel();
+        try(FakePanel fake = new FakePanel())
+        {
+            panel.notifications().subscribe(harness::delivered, NotificationBus.DEFAULT_CAPACITY,
+                                             NotificationBus.Overflow.BLOCK);
+            final Thread accepting = new Thread(() -> {
+                try
+                {
+                    fake.accept();
+                }
+                catch(IOException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            });
+            accepting.start();
+            final EvlConnection conn = mgr.connect(InetAddress.getLoopbackAddress(), Optional.of(fake.port()),
+                                                    () -> "user", panel.stateHandler);
+            accepting.join();
+            StageProbe.install(harness.probe);
+            harness.run(fake, Integer.parseInt(rates[0]), seconds, false);
+            for(String rate : rates) harness.run(fake, Integer.parseInt(rate), seconds, true);
+            StageProbe.install(null);
+            conn.close();
+        }
+        finally
+        {
+            panel.close();
+            mgr.close();
+        }
+    }
+}
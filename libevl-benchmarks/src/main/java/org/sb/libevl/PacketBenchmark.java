@@ -0,0 +1,68 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.InvalidObjectException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding single packets.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark
+{
+    private Packet pkt;
+    private String wire;
+    private final byte[] out = new byte[64];
+
+    @Setup
+    public void setup()
+    {
+        pkt = new Packet(609, "012");
+        wire = pkt.serialize();
+    }
+
+    @Benchmark
+    public String serialize()
+    {
+        return pkt.serialize();
+    }
+
+    @Benchmark
+    public Packet deserialize() throws InvalidObjectException
+    {
+        return Packet.deserialize(wire);
+    }
+
+    @Benchmark
+    public int checksum()
+    {
+        return PacketCodec.checksum(pkt.getCmdCode(), pkt.getData());
+    }
+
+    @Benchmark
+    public int encode()
+    {
+        return PacketCodec.encode(pkt, out, 0);
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packets in roughly the proportions a panel sends them: mostly repeated keypad LED updates, then zones
+ * opening and closing, partition state, the time broadcast and the odd event.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class PacketMix
+{
+    static Packet[] panel()
+    {
+        final List<Packet> pkts = new ArrayList<>();
+        for(int z = 1; z <= 16; z++)
+        {
+            for(int i = 0; i < 4; i++) pkts.add(new Packet(510, "81"));
+            pkts.add(new Packet(609, String.format("%03d", z)));
+            pkts.add(new Packet(651, "1"));
+            pkts.add(new Packet(510, "80"));
+            pkts.add(new Packet(610, String.format("%03d", z)));
+            pkts.add(new Packet(650, "1"));
+            pkts.add(new Packet(511, "00"));
+        }
+        pkts.add(new Packet(550, "123000101726"));
+        pkts.add(new Packet(652, "10"));
+        pkts.add(new Packet(700, "10001"));
+        pkts.add(new Packet(655, "1"));
+        pkts.add(new Packet(750, "10001"));
+        pkts.add(new Packet(663, "1"));
+        return pkts.toArray(new Packet[pkts.size()]);
+    }
+
+    /**
+     * The panel mix with a command acknowledgement after every few packets, as seen by a connection.
+     */
+    static Packet[] connection()
+    {
+        final List<Packet> pkts = new ArrayList<>();
+        int i = 0;
+        for(Packet pkt : panel())
+        {
+            pkts.add(pkt);
+            if(++i % 8 == 0) pkts.add(new Packet(500, "001"));
+        }
+        return pkts.toArray(new Packet[pkts.size()]);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link EvlConnection#processPacket(Packet)} over the {@link PacketMix#connection() connection mix}: ack
+ * lookup, reply actions and the panel's state handler, with the panel applying inline and a link that
+ * goes nowhere.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessPacketBenchmark
+{
+    private static class NullLink implements EvlConnection.Link
+    {
+        @Override
+        public void start()
+        {
+        }
+
+        @Override
+        public void write(Packet pkt)
+        {
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return true;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    private DscPanel panel;
+    private EvlConnection conn;
+    private Packet[] mix;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        panel = new DscPanel(null, PanelShards.inline());
+        conn = new EvlConnection(c -> new NullLink(), () -> "user", panel.stateHandler, Runnable::run);
+        mix = PacketMix.connection();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        conn.close();
+        panel.close();
+    }
+
+    @Benchmark
+    public void processPacket()
+    {
+        final Packet pkt = mix[next];
+        next = next + 1 == mix.length ? 0 : next + 1;
+        conn.processPacket(pkt);
+    }
+}
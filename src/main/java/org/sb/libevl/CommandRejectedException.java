@@ -0,0 +1,38 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.IOException;
+
+/**
+ * A command answered with a negative acknowledgement (501, 502 or 670) by the TPI.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class CommandRejectedException extends IOException
+{
+    private static final long serialVersionUID = 2735153489618532617L;
+
+    private final Packet command;
+
+    private final Packet reply;
+
+    public CommandRejectedException(Packet command, Packet reply)
+    {
+        super("Command packet " + command + ", received negative ack " + reply);
+        this.command = command;
+        this.reply = reply;
+    }
+
+    public Packet getCommand()
+    {
+        return command;
+    }
+
+    public Packet getReply()
+    {
+        return reply;
+    }
+}
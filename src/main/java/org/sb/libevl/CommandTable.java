@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A dense table of handlers indexed directly by the 3 digit TPI command code, so dispatching a packet is a
+ * single array load. Packets nobody handles, and packets that change nothing, are counted per code rather than
+ * logged.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class CommandTable<H>
+{
+    static final int SIZE = 1000;
+
+    private final Object[] handlers = new Object[SIZE];
+
+    private final AtomicLongArray unhandled = new AtomicLongArray(SIZE);
+
+    private final AtomicLongArray suppressed = new AtomicLongArray(SIZE);
+
+    /**
+     * Only meant to be used while building the table, before it is shared.
+     */
+    CommandTable<H> put(int cmdCode, H handler)
+    {
+        if(handlers[cmdCode] != null) throw new IllegalStateException("Duplicate handler for " + cmdCode);
+        handlers[cmdCode] = handler;
+        return this;
+    }
+
+    /**
+     * @return the handler for the code, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    H get(int cmdCode)
+    {
+        return cmdCode >= 0 && cmdCode < SIZE ? (H)handlers[cmdCode] : null;
+    }
+
+    void unhandled(int cmdCode)
+    {
+        if(cmdCode >= 0 && cmdCode < SIZE) unhandled.incrementAndGet(cmdCode);
+    }
+
+    long unhandledCount(int cmdCode)
+    {
+        return cmdCode >= 0 && cmdCode < SIZE ? unhandled.get(cmdCode) : 0;
+    }
+
+    void collect(MetricsVisitor visitor, String prefix)
+    {
+        EvlMetrics.perCode(visitor, prefix + "unhandled_packets_total", "Packets nothing handled, by command code",
+                            unhandled);
+        EvlMetrics.perCode(visitor, prefix + "suppressed_packets_total",
+                            "Packets that repeated the current state, by command code", suppressed);
+    }
+
+    void suppressed(int cmdCode)
+    {
+        if(cmdCode >= 0 && cmdCode < SIZE) suppressed.incrementAndGet(cmdCode);
+    }
+
+    long suppressedCount(int cmdCode)
+    {
+        return cmdCode >= 0 && cmdCode < SIZE ? suppressed.get(cmdCode) : 0;
+    }
+}
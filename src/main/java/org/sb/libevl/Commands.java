@@ -4,7 +4,6 @@
 package org.sb.libevl;
 
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -68,15 +67,15 @@ public class Commands
         return makeCodePacketFlow(32, parIdStr(partitionId), code);
     }
     
-    private static boolean needsCode(int cmdCode)
-    {
-        return Arrays.stream(new int[]{900, 912, 921, 922}).anyMatch(code -> code == cmdCode);
-    }
+    /**
+     * The code required replies a command can get
+     */
+    private static final int[] needsCode = {900, 912, 921, 922};
     
     private static PacketFlow makeCodePacketFlow(int cmdCode, String data, Supplier<String> code)
     {
         return new PacketFlow(new Packet(cmdCode, data),
-                            pkt -> needsCode(pkt.getCmdCode()), () -> new Packet(200, codeStr(code.get()))); 
+                            needsCode, () -> new Packet(200, codeStr(code.get()))); 
     }
     
     public Packet arm(int partitionId, String code)
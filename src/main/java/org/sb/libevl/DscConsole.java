@@ -3,8 +3,10 @@
  */
 package org.sb.libevl;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.Optional;
 import java.util.concurrent.TimeoutException;
@@ -13,6 +15,8 @@ import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
 
+import com.sun.net.httpserver.HttpServer;
+
 /**
  * @author sameetb
  * @since 201612
@@ -27,10 +31,23 @@ public class DscConsole
     public DscConsole(String[] args) throws UnknownHostException, IOException, InterruptedException, TimeoutException
     {
         usage(args);
-        final DscPanel panel = new DscPanel(DscConsole::println);
+        final DscPanel panel = Optional.ofNullable(System.getProperty("evl.stateFile"))
+                                        .map(f -> new DscPanel(DscConsole::println, new File(f)))
+                                        .orElseGet(() -> new DscPanel(DscConsole::println));
         final EvlConnection conn = new EvlConnection(InetAddress.getByName(args[0]), 
                                                 Optional.ofNullable(args.length > 1 ? args[1] : null).map(p -> Integer.parseInt(p)), 
                                                 DscConsole::getPassword, panel.stateHandler);
+        final Optional<HttpServer> metrics = Optional.ofNullable(Integer.getInteger("evl.metricsPort")).map(port -> {
+            try
+            {
+                return PrometheusRenderer.serve(new EvlMetrics().register("connection", conn).register("panel", panel),
+                                                new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException("Failed to serve metrics on port " + port, e);
+            }
+        });
         Commands cmds = new Commands();
         conn.send(cmds.statusReport());
         
@@ -52,6 +69,7 @@ public class DscConsole
             }
         }
         
+        metrics.ifPresent(m -> m.stop(0));
         conn.close();
         panel.close();
         System.console().flush();
@@ -61,6 +79,9 @@ public class DscConsole
     {
         if(args.length > 0) return;
         System.out.println("Usage: " + DscConsole.class.getSimpleName() + " <ipAddress>");
+        System.out.println("       -Devl.stateFile=<file> restores the last known panel state on start");
+        System.out.println("       -Devl.virtualThreads=true runs connections and panels on virtual threads, Java 21+");
+        System.out.println("       -Devl.metricsPort=<port> serves metrics on http://localhost:<port>/metrics");
         System.exit(1);
     }
     
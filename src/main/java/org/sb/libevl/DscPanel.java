@@ -3,23 +3,42 @@
  */
 package org.sb.libevl;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,7 +47,7 @@ import org.slf4j.LoggerFactory;
  * @author sameetb
  * @since 201612
  */
-public class DscPanel
+public class DscPanel implements MetricsSource
 {
     private static final Logger log = LoggerFactory.getLogger(DscPanel.class);
 
@@ -39,17 +58,28 @@ public class DscPanel
     static class Led
     {
         final String name;
-        private LedState state = LedState.UNKNOWN;
+        LedState state = LedState.UNKNOWN;
         
         public Led(String name)
         {
             this.name = name;
         }
 
+        Led(Led led)
+        {
+            this.name = led.name;
+            this.state = led.state;
+        }
+
         public String toJson()
         {
             return JsonHelper.json(name, state);
         }
+
+        void writeJson(JsonWriter w) throws IOException
+        {
+            w.member(name, state);
+        }
     }
     
     private final Map<String, AlarmState> alarms = new ConcurrentHashMap<>();
@@ -72,18 +102,26 @@ public class DscPanel
     
     public enum TamperState {NORMAL, TAMPER, UNKNOWN};
     
-    static class Zone
+    /**
+     * A read only view of a zone in the {@link ZoneStore}
+     */
+    static class Zone implements JsonWriter.Writable
     {
         final int zid;
-        ZoneState general = ZoneState.UNKNOWN;
-        AlarmState alarm = AlarmState.UNKNOWN;
-        int partition;
-        public TamperState tamper = TamperState.UNKNOWN;
-        public FaultState fault = FaultState.UNKNOWN;
+        final ZoneState general;
+        final AlarmState alarm;
+        final int partition;
+        final TamperState tamper;
+        final FaultState fault;
         
-        public Zone(int zid)
+        Zone(int zid, long state)
         {
             this.zid = zid;
+            this.general = ZoneStore.general(state);
+            this.alarm = ZoneStore.alarm(state);
+            this.partition = ZoneStore.partition(state);
+            this.tamper = ZoneStore.tamper(state);
+            this.fault = ZoneStore.fault(state);
         }
 
         boolean hasProblem()
@@ -102,12 +140,19 @@ public class DscPanel
 
         public String toJson()
         {
-            return JsonHelper.obj(
-                    JsonHelper.json("id", zid), 
-                    JsonHelper.json("state", general), 
-                    JsonHelper.json("alarm", alarm ),
-                    JsonHelper.json("tamper", tamper), 
-                    JsonHelper.json("fault", fault ));
+            return JsonWriter.toJson(this);
+        }
+
+        @Override
+        public void writeJson(JsonWriter w) throws IOException
+        {
+            w.beginObject()
+                .member("id", zid)
+                .member("state", general)
+                .member("alarm", alarm)
+                .member("tamper", tamper)
+                .member("fault", fault)
+             .endObject();
         }
     }
     
@@ -117,19 +162,35 @@ public class DscPanel
     
     public enum PartitionDelay {NONE, EXITDELAY, ENTRYDELAY}
     
-    static class Partition
+    /** events kept per partition */
+    static final int EVENT_HISTORY = 1024;
+    
+    static class Partition implements JsonWriter.Writable
     {
         final int pid;
         PartitionState state = PartitionState.UNKNOWN;
         PartitionArmState arm = PartitionArmState.NONE;
         PartitionDelay delay = PartitionDelay.NONE;
         boolean keypadLockout = false;
-        final EvictingQueue<Entry<Date, String>> events = new EvictingQueue<>(100);
+        final EventRing events;
         boolean installerMode = false;
         boolean trouble = false;
         public Partition(int pid)
         {
             this.pid = pid;
+            this.events = new EventRing(EVENT_HISTORY);
+        }
+
+        Partition(Partition p)
+        {
+            this.pid = p.pid;
+            this.state = p.state;
+            this.arm = p.arm;
+            this.delay = p.delay;
+            this.keypadLockout = p.keypadLockout;
+            this.events = p.events;
+            this.installerMode = p.installerMode;
+            this.trouble = p.trouble;
         }
 
         @Override
@@ -142,25 +203,32 @@ public class DscPanel
 
         public String toJson()
         {
-            return JsonHelper.obj(
-                    JsonHelper.json("id", pid), 
-                    JsonHelper.json("state", state), 
-                    JsonHelper.json("arm", arm), 
-                    JsonHelper.json("delay", delay),
-                    JsonHelper.json("keypadLockout", keypadLockout), 
-                    JsonHelper.json("installerMode", installerMode), 
-                    JsonHelper.json("trouble", trouble));
+            return JsonWriter.toJson(this);
+        }
+
+        @Override
+        public void writeJson(JsonWriter w) throws IOException
+        {
+            w.beginObject()
+                .member("id", pid)
+                .member("state", state)
+                .member("arm", arm)
+                .member("delay", delay)
+                .member("keypadLockout", keypadLockout)
+                .member("installerMode", installerMode)
+                .member("trouble", trouble)
+             .endObject();
         }
     }
     
-    private final ConcurrentHashMap<Integer, Zone> zones = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Integer, Partition> partitions = new ConcurrentHashMap<>();
+    private final ZoneStore zones = new ZoneStore();
+    private final Map<Integer, Partition> partitions = new HashMap<>();
     
     enum TroubleState {NORMAL, TROUBLE, UNKNOWN};
     private final ConcurrentHashMap<String, TroubleState> troubles = new ConcurrentHashMap<>();
     
-    private Map<Integer, Consumer<String>> cmdHandlers = Collections.unmodifiableMap(
-                  new HashMap<Integer, Consumer<String>>() {{
+    private final CommandTable<Consumer<String>> cmdHandlers = 
+                  new CommandTable<Consumer<String>>() {{
                         put(510, data -> updateLedState(data, false));
                         put(511, data -> updateLedState(data, true));
                         
@@ -200,42 +268,27 @@ public class DscPanel
                         
                         put(658, DscPanel.this::keypadLockout);
                         
-                        put(659, data -> updateEvent(data, "659 - Partition Failed to Arm. "
-                                + "An attempt to arm the partition has failed."));
-                        put(660, data -> updateEvent(data, "660 - PGM Output is in Progress."));
-
-                        put(663, data -> updateEvent(data, "663 - Chime Enabled. "
-                                + "The door chime feature has been enabled."));
-                        put(664, data -> updateEvent(data, "664 - Chime Disabled. "
-                                + "The door chime feature has been disabled."));
-
-                        /*put(670, data -> updateEvent(data, "670 - Invalid Access Code. "
-                                + "An access code that was entered was invalid."));*/
-                        put(671, data -> updateEvent(data, "671 - Function Not Available. "
-                                + "A function that was selected is not available."));
-                        put(672, data -> updateEvent(data, "672 - Failure to Arm. "
-                                + "An attempt was made to arm the partition and it failed."));
+                        put(659, data -> updateEvent(data, 659));
+                        put(660, data -> updateEvent(data, 660));
+
+                        put(663, data -> updateEvent(data, 663));
+                        put(664, data -> updateEvent(data, 664));
+
+                        /*put(670, data -> updateEvent(data, 670));*/
+                        put(671, data -> updateEvent(data, 671));
+                        put(672, data -> updateEvent(data, 672));
                         
                         put(673, data -> updatePartition(data, PartitionState.BUSY));
-                        put(674, data -> updateEvent(data, "674 - System Arming in Progress. "
-                                + "This system is auto-arming and is in arm warning delay."));
+                        put(674, data -> updateEvent(data, 674));
 
                         put(680, DscPanel.this::installerMode);
                         
-                        put(700, data -> updateEvent(data, "700 - User Closing. "
-                                + "A partition has been armed by a user '" + data.substring(1, 5)
-                                + "' – sent at the end of exit delay."));
-                        put(701, data -> updateEvent(data, "701 - Special Closing. "
-                                + "A partition has been armed by one of the following methods: "
-                                + "Quick Arm, Auto Arm, Keyswitch, DLS software, Wireless Key."));
-                        put(702, data -> updateEvent(data, "702 - Partial Closing. "
-                                + "A partition has been armed but one or more zones have been bypassed."));
+                        put(700, data -> updateEvent(data, 700));
+                        put(701, data -> updateEvent(data, 701));
+                        put(702, data -> updateEvent(data, 702));
                         
-                        put(750, data -> updateEvent(data, "750 - User Opening."
-                                + "A partition has been disarmed by a user " + data.substring(1, 5)));
-                        put(751, data -> updateEvent(data, "751 - Special Opening. "
-                                + "A partition has been disarmed by one of the following methods: "
-                                + "Keyswitch, DLS software, Wireless Key"));
+                        put(750, data -> updateEvent(data, 750));
+                        put(751, data -> updateEvent(data, 751));
 
                         put(800, data -> updateTrouble("Panel Battery", false));
                         put(801, data -> updateTrouble("Panel Battery", true));
@@ -255,57 +308,306 @@ public class DscPanel
                         
                         put(842, data -> updateTrouble("Fire", false));
                         put(843, data -> updateTrouble("Fire", true));
-                  }});
-
-    private final ExecutorService asyncUpdater = Executors.newSingleThreadExecutor();
-    
-    public final Function<Packet, Boolean> stateHandler = 
-            pkt -> Optional.ofNullable(cmdHandlers.get(pkt.getCmdCode()))
-                           .map(con -> 
-                               {
-                                   asyncUpdater.submit(() -> {
-                                        try
-                                        {
-                                            con.accept(pkt.getData());
-                                        }
-                                        catch(Exception e)
-                                        {
-                                            log("Failed to process packet " + pkt, e);
-                                        }
-                                   }); 
-                                   return true;
-                               })
-                           .orElse(false); 
-    
-    private final Optional<Consumer<Notification>> notifier;
+                  }};
+
+    /** hands out panel ids, see {@link #getId()} */
+    private static final AtomicInteger panelIds = new AtomicInteger();
+    
+    private final int id = panelIds.getAndIncrement();
+    
+    /** applies the packets, in the order received */
+    private final Executor updater;
+    
+    private volatile Optional<PacketJournal> journal = Optional.empty();
+    
+    public final Function<Packet, Boolean> stateHandler = pkt -> 
+    {
+        journal.ifPresent(j -> record(j, pkt));
+        final Consumer<String> con = cmdHandlers.get(pkt.getCmdCode());
+        if(con == null)
+        {
+            cmdHandlers.unhandled(pkt.getCmdCode());
+            return false;
+        }
+        submit(con, pkt);
+        return true;
+    };
+    
+    private void submit(Consumer<String> con, Packet pkt)
+    {
+        updater.execute(() -> apply(con, pkt));
+    }
+    
+    /**
+     * true while replaying recorded packets, which neither notifies, logs nor publishes, only touched by the
+     * updater
+     */
+    private boolean replaying;
+    
+    /** when the packet being replayed was recorded, in epoch millis, only touched by the updater */
+    private long recordedAt;
+    
+    /** the code of the packet being applied, only touched by the updater */
+    private int applying;
+    
+    private void apply(Consumer<String> con, Packet pkt)
+    {
+        if(!replaying) StageProbe.packet(StageProbe.Stage.DISPATCHED, pkt);
+        final long start = System.nanoTime();
+        final Object event = replaying ? null : FlightEvents.startApply();
+        final PanelSnapshot before = snapshot;
+        applying = pkt.getCmdCode();
+        try
+        {
+            con.accept(pkt.getData());
+        }
+        catch(Exception e)
+        {
+            log("Failed to process packet " + pkt, e);
+        }
+        if(!replaying) publish();
+        handlerTimes.record(System.nanoTime() - start);
+        FlightEvents.applied(event, id, applying, snapshot != before);
+        if(!replaying) StageProbe.packet(StageProbe.Stage.APPLIED, pkt);
+    }
+    
+    /** from taking up a packet to publishing its snapshot */
+    private final TimeHistogram handlerTimes = new TimeHistogram();
+    
+    @Override
+    public void collect(MetricsVisitor visitor)
+    {
+        cmdHandlers.collect(visitor, "evl_panel_");
+        final int depth = EvlMetrics.queueDepth(updater);
+        if(depth >= 0) visitor.gauge("evl_panel_updater_queue_depth", "Packets waiting for the panel's updater, "
+                                        + "of every panel on it if it is shared", depth);
+        visitor.gauge("evl_panel_version", "Version of the latest snapshot", snapshot.getVersion());
+        if(notifier != null) visitor.counter("evl_panel_notifier_dropped_total", "Notifications the panel's notifier "
+                                                + "missed because it fell too far behind", notifier.dropped());
+        handlerTimes.collect("evl_panel_handler_seconds", "Time to apply a packet and publish the snapshot", visitor);
+    }
+    
+    /**
+     * Applies a recorded packet on the calling thread, through the same handlers as {@link #stateHandler} but
+     * without notifications. Only meant for a panel that is not receiving live packets, see {@link PanelReplay}.
+     * The state is not published until {@link #replayed()}.
+     * @param ts when the packet was recorded, in epoch millis, which any event it carries is stamped with
+     * @return false if there is no handler for the packet
+     */
+    boolean replay(long ts, Packet pkt)
+    {
+        final Consumer<String> con = cmdHandlers.get(pkt.getCmdCode());
+        if(con == null)
+        {
+            cmdHandlers.unhandled(pkt.getCmdCode());
+            return false;
+        }
+        replaying = true;
+        recordedAt = ts;
+        try
+        {
+            apply(con, pkt);
+        }
+        finally
+        {
+            replaying = false;
+        }
+        return true;
+    }
+    
+    /**
+     * Publishes the state changed by the packets replayed so far, once for the whole batch rather than once
+     * per packet.
+     */
+    void replayed()
+    {
+        publish();
+    }
+    
+    /** sections of the state changed since the last snapshot, only touched by the updater */
+    private static final int DATETIME = 1, ZONES = 2, PARTITIONS = 4, LEDS = 8, ALARMS = 16, TROUBLES = 32;
+    private int dirty;
+    private int dirtyPartitions;
+    
+    private volatile PanelSnapshot snapshot = PanelSnapshot.EMPTY;
+    
+    private final NotificationBus notifications = new NotificationBus();
+    
+    /** the subscription of the notifier given to the constructor, null if there was none */
+    private final NotificationBus.Subscription notifier;
+    
+    /** saves the state of every panel that has a state file */
+    private static final ScheduledExecutorService saver =
+            Executors.newSingleThreadScheduledExecutor(EvlConnectionManager.daemonThreads("evl-state-saver-"));
+    
+    static final long SAVE_INTERVAL_MS = 10000;
+    
+    private final Optional<File> stateFile;
+    private final Optional<ScheduledFuture<?>> saving;
+    private long savedVersion;
     
     public DscPanel()
     {
-        notifier = Optional.empty();
+        this(null);
     }
     
+    /**
+     * @param notifier subscribed to {@link #notifications()} with the default queue, which coalesces all but
+     * alarms and tampers, may be null
+     */
     public DscPanel(Consumer<Notification> notifier)
     {
-        this.notifier = Optional.ofNullable(notifier);
+        this(notifier, (Executor)null);
+    }
+    
+    /**
+     * @param updater applies received packets to the state, one at a time and in order, e.g. a shard of
+     * {@link PanelShards} or {@link PanelShards#inline()}; null for {@link EvlExecutors#panelUpdater(int)}
+     */
+    public DscPanel(Consumer<Notification> notifier, Executor updater)
+    {
+        this.notifier = notifier != null ? notifications.subscribe(notifier) : null;
+        this.updater = updater != null ? updater : EvlExecutors.current().panelUpdater(id);
+        this.stateFile = Optional.empty();
+        this.saving = Optional.empty();
+    }
+    
+    /**
+     * Restores the state saved in the file, if there is one, and from then on saves the state to it every few
+     * seconds and on {@link #close()}. Until the first packet is received the restored state is
+     * {@link PanelSnapshot#isStale() stale}.
+     */
+    public DscPanel(Consumer<Notification> notifier, File stateFile)
+    {
+        this(notifier, stateFile, null);
     }
     
+    public DscPanel(Consumer<Notification> notifier, File stateFile, Executor updater)
+    {
+        this.notifier = notifier != null ? notifications.subscribe(notifier) : null;
+        this.updater = updater != null ? updater : EvlExecutors.current().panelUpdater(id);
+        this.stateFile = Optional.of(stateFile);
+        if(stateFile.exists()) restore(stateFile);
+        savedVersion = snapshot.getVersion();
+        this.saving = Optional.of(saver.scheduleWithFixedDelay(this::save, SAVE_INTERVAL_MS, SAVE_INTERVAL_MS,
+                                                                 TimeUnit.MILLISECONDS));
+    }
+    
+    /**
+     * @return the id of the panel, unique in this JVM, which also picks its default updater
+     */
+    public int getId()
+    {
+        return id;
+    }
+    
+    private void restore(File file)
+    {
+        final PanelSnapshot saved;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            saved = PanelSnapshot.readFrom(in);
+        }
+        catch(IOException e)
+        {
+            log("Failed to restore state from " + file, e);
+            return;
+        }
+        dateTime = saved.dateTime();
+        saved.zoneStore().ids().forEach(zid -> zones.put(zid, saved.zoneStore().get(zid)));
+        saved.partitionMap().values().forEach(p -> partitions.put(p.pid, new Partition(p)));
+        for(Led led : saved.leds())
+            for(Led own : keyPad) if(own.name.equals(led.name)) own.state = led.state;
+        alarms.putAll(saved.alarmMap());
+        troubles.putAll(saved.troubleMap());
+        snapshot = saved;
+        log("Restored state of " + saved.zoneStore().size() + " zones from " + file);
+    }
+    
+    /**
+     * Saves the current snapshot if it changed since the last save, writing a new file and renaming it over
+     * the old one so that a crash never leaves a partial file behind.
+     */
+    private synchronized void save()
+    {
+        final PanelSnapshot snap = snapshot;
+        if(!stateFile.isPresent() || snap.getVersion() == savedVersion) return;
+        final File file = stateFile.get();
+        final File tmp = new File(file.getPath() + ".tmp");
+        try
+        {
+            try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+            {
+                snap.writeTo(out);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            savedVersion = snap.getVersion();
+        }
+        catch(IOException e)
+        {
+            log("Failed to save state to " + file, e);
+        }
+    }
+    
+    /**
+     * Appends every packet received from now on, handled or not, to the journal.
+     */
+    public void setJournal(PacketJournal journal)
+    {
+        this.journal = Optional.ofNullable(journal);
+    }
+    
+    private void record(PacketJournal j, Packet pkt)
+    {
+        try
+        {
+            j.append(pkt);
+        }
+        catch(IOException e)
+        {
+            log("Failed to journal packet " + pkt, e);
+        }
+    }
+    
+    /** the last 510 or 511 bitmask, with 0x100 set for 511, -1 if none yet; only touched by the updater */
+    private int ledBits = -1;
+    
     private void updateLedState(String data, boolean flash)
     {
-        int state = Integer.parseInt(data.substring(0, 2), 16);
+        int state = digits(data, 0, 2, 16);
+        // the panel repeats these every few seconds
+        final int bits = flash ? state | 0x100 : state;
+        if(bits == ledBits)
+        {
+            suppressed();
+            return;
+        }
+        ledBits = bits;
         int bm = 0x80;
         for(int i = 7; i >= 0; i--)
         {
             keyPad[i].state = ((state & bm) == 0) ? LedState.OFF : (flash ? LedState.FLASH : LedState.ON);
             bm >>= 1;
         }
-        sendNotification(Notification.Type.LED , "leds updated");
+        dirty |= LEDS;
+        sendNotification(Notification.Type.LED , "leds updated", Notification.NONE, null, null, true);
     }
     
+    /** the data of the last 550 applied, only touched by the updater */
+    private String lastDateTime;
+    
     private void updateDateTime(String data)
     {
+        if(data.equals(lastDateTime))
+        {
+            suppressed();
+            return;
+        }
         try
         {
             dateTime = new SimpleDateFormat("HHmmssMMDDyy").parse(data);
+            lastDateTime = data;
+            dirty |= DATETIME;
         }
         catch (ParseException e)
         {
@@ -318,84 +620,156 @@ public class DscPanel
         log("Ignoring temperature reading " + data);
     }
     
-    private Zone getOrCreateZone(int zoneId)
+    private Partition getOrCreatePartition(int partId)
     {
-        Zone z = zones.get(zoneId);
-        if(z == null) zones.put(zoneId, z = new Zone(zoneId));
+        Partition z = partitions.get(partId);
+        if(z == null)
+        {
+            partitions.put(partId, z = new Partition(partId));
+            changed(z);
+        }
         return z;
     }
     
-    private Partition getOrCreatePartition(int partId)
+    /**
+     * Marks the partition for copying into the next snapshot.
+     */
+    private void changed(Partition p)
     {
-        Partition z = partitions.get(partId);
-        if(z == null) partitions.put(partId, z = new Partition(partId));
-        return z;
+        dirty |= PARTITIONS;
+        dirtyPartitions |= 1 << p.pid;
+    }
+    
+    /**
+     * Counts the packet being applied as one that changed nothing.
+     */
+    private void suppressed()
+    {
+        cmdHandlers.suppressed(applying);
     }
 
     private void updateZone(String data, AlarmState aState)
     {
-    	updateZoneA(data, Optional.of(aState), Optional.empty());
+    	updateZoneA(data, ZoneStore.ALARM, aState);
     }
     
     private void updateZone(String data, TamperState tState)
     {
-    	updateZoneA(data, Optional.empty(), Optional.of(tState));
+    	updateZoneA(data, ZoneStore.TAMPER, tState);
     }
     
-    private void updateZoneA(String data, Optional<AlarmState> aState, Optional<TamperState> tState)
+    private void updateZoneA(String data, int field, Enum<?> state)
     {
-        int partition = Integer.parseInt(data.substring(0, 1));
-        int zone = Integer.parseInt(data.substring(1, 4));
-        log("Updating zone " + zone + ", partition=" + partition +  aState.map(a -> "alarm=" + a).orElse("") + tState.map(t -> ", tamper=" + t).orElse(""));
-        Zone z = getOrCreateZone(zone); 
-        aState.ifPresent(a -> {z.alarm = a;sendNotification(Notification.Type.ZONE , "Zone "  + zone + " alarm: " + a);});
-        tState.ifPresent(t -> {z.tamper = t;sendNotification(Notification.Type.ZONE , "Zone "  + zone + " tamper: " + z);});
+        final int partition = digits(data, 0, 1, 10);
+        final int zone = digits(data, 1, 4, 10);
+        if(zones.setPartition(zone, partition)) dirty |= ZONES;
+        else if(ZoneStore.state(zones.get(zone), field) == state)
+        {
+            suppressed();
+            return;
+        }
+        final boolean alarm = field == ZoneStore.ALARM;
+        log("Updating zone " + zone + ", partition=" + partition + (alarm ? ", alarm=" : ", tamper=") + state);
+        final Enum<?> was = zoneState(zone, field, state);
+        sendNotification(Notification.Type.ZONE , "Zone "  + zone + (alarm ? " alarm: " + state : " tamper: " + zone(zone)), zone, was, state, false);
     }
 
-    private void updateZone(String data, ZoneState aState)
+    private void updateZone(String data, ZoneState state)
+    {
+    	updateZoneB(data, ZoneStore.GENERAL, state);
+    }
+    
+    private void updateZone(String data, FaultState fState)
     {
-    	updateZoneB(data, Optional.of(aState), Optional.empty());
+    	updateZoneB(data, ZoneStore.FAULT, fState);
     }
     
-    private void updateZone(String data, FaultState tState)
+    private void updateZoneB(String data, int field, Enum<?> state)
     {
-    	updateZoneB(data, Optional.empty(), Optional.of(tState));
+        final int zone = digits(data, 0, 3, 10);
+        if(ZoneStore.state(zones.get(zone), field) == state)
+        {
+            suppressed();
+            return;
+        }
+        final boolean general = field == ZoneStore.GENERAL;
+        log("Updating zone " + zone + (general ? ", state=" : ", fault=") + state);
+        final Enum<?> was = zoneState(zone, field, state);
+        sendNotification(Notification.Type.ZONE , "Zone "  + zone + (general ? " state: " + state : " fault: " + zone(zone)), zone, was, state, true);
     }
     
-    private void updateZoneB(String data, Optional<ZoneState> state, Optional<FaultState> fState)
+    /**
+     * Parses the digits from begin to end of the data, like {@link Integer#parseInt(String, int)} of the
+     * substring but without making one.
+     */
+    private static int digits(String data, int begin, int end, int radix)
     {
-        int zone = Integer.parseInt(data.substring(0, 3));
-        log("Updating zone " + zone + state.map(s -> ", state=" + s).orElse("") + fState.map(f -> ", fault=" + f).orElse(""));
-        Zone z = getOrCreateZone(zone); 
-        state.ifPresent(a -> {z.general = a;sendNotification(Notification.Type.ZONE , "Zone "  + zone + " state: " + a);});
-        fState.ifPresent(t -> {z.fault = t;sendNotification(Notification.Type.ZONE , "Zone "  + zone + " fault: " + z);});
+        if(end > data.length()) throw new NumberFormatException("Too short: '" + data + "'");
+        int value = 0;
+        for(int i = begin; i < end; i++)
+        {
+            final int d = Character.digit(data.charAt(i), radix);
+            if(d < 0) throw new NumberFormatException("Not a digit at " + i + ": '" + data + "'");
+            value = value * radix + d;
+        }
+        return value;
+    }
+    
+    /**
+     * Sets one state of the zone.
+     * @return the state it replaced
+     */
+    private Enum<?> zoneState(int zone, int field, Enum<?> state)
+    {
+        final Enum<?> was = ZoneStore.state(zones.get(zone), field);
+        if(zones.set(zone, field, state)) dirty |= ZONES;
+        return was;
+    }
+    
+    private Zone zone(int zid)
+    {
+        return new Zone(zid, zones.get(zid));
     }
     
     private void updateAlarm(String name, boolean restore)
     {
+        final AlarmState state = restore ? AlarmState.NORMAL : AlarmState.ALARM;
+        final AlarmState was = alarms.put(name, state);
+        if(was == state)
+        {
+            suppressed();
+            return;
+        }
         log("Updating alarm " + name + "restore=" + false);
-        alarms.put(name, restore ? AlarmState.NORMAL : AlarmState.ALARM);
-        sendNotification(Notification.Type.ALARM , name);
+        dirty |= ALARMS;
+        sendNotification(Notification.Type.ALARM , name, Notification.NONE, was == null ? AlarmState.UNKNOWN : was, state, false);
     }
     
     private void updatePartition(String data, PartitionState state)
     {
         Partition p = parsePid(data);
+        final PartitionState was = p.state;
+        final int mode = state == PartitionState.ARMED ? Integer.parseInt(data.substring(1, 2)) : -1;
+        final PartitionArmState[] values = PartitionArmState.values();
+        if(was == state && (mode < 0 || mode >= values.length || (p.arm == values[mode] && p.delay == PartitionDelay.NONE)))
+        {
+            suppressed();
+            return;
+        }
         log("Updating partition=" + p.pid +  ", state=" + state);
         p.state = state;
+        changed(p);
         
         if(state == PartitionState.ARMED)
         { //set the armed mode
-            int mode = Integer.parseInt(data.substring(1, 2));
             log("Updating partition=" + p.pid +  ", arm mode =" + mode);
-            final PartitionArmState[] values = PartitionArmState.values();
             if(mode < values.length) p.arm = values[mode];
             else log("Ignoring unknown arm mode = " + mode);
             p.delay = PartitionDelay.NONE;
-            sendNotification(Notification.Type.ARM, state.name() + "." + p.arm.name());
+            sendNotification(Notification.Type.ARM, state.name() + "." + p.arm.name(), p.pid, was, state, true);
         }
         else
-        	sendNotification(state != PartitionState.ALARM ? Notification.Type.ARM : Notification.Type.ALARM , state.name());
+        	sendNotification(state != PartitionState.ALARM ? Notification.Type.ARM : Notification.Type.ALARM , state.name(), p.pid, was, state, true);
     }
 
     private Partition parsePid(String data)
@@ -407,8 +781,14 @@ public class DscPanel
     private void updatePartition(String data, PartitionDelay state)
     {
         Partition p = parsePid(data);
+        if(p.delay == state)
+        {
+            suppressed();
+            return;
+        }
         log("Updating partition=" + p.pid +  ", delay=" + state);
-        sendNotification(Notification.Type.MISC, state.name());
+        changed(p);
+        sendNotification(Notification.Type.MISC, state.name(), p.pid, p.delay, state, false);
         p.delay = state;
     }
     
@@ -416,44 +796,106 @@ public class DscPanel
     {
         Partition p = parsePid(data);
         log("Updating partition=" + p.pid +  ", keypad locked out");
+        if(!p.keypadLockout) changed(p);
         p.keypadLockout = true;
-        sendNotification(Notification.Type.MISC , "keypad locked out");
+        sendNotification(Notification.Type.MISC , "keypad locked out", p.pid, null, null, false);
     }
 
     private void installerMode(String data)
     {
         Partition p = parsePid(data);
         log("Updating partition=" + p.pid +  ", installer mode");
+        if(!p.installerMode) changed(p);
         p.installerMode = true;
-        sendNotification(Notification.Type.MISC , "installer mode");
+        sendNotification(Notification.Type.MISC , "installer mode", p.pid, null, null, false);
     }
     
-    private void updateEvent(String data, String eventMsg)
+    private void updateEvent(String data, int code)
     {
         Partition p = parsePid(data);
-        log("Updating partition=" + p.pid +  ", event=" + eventMsg);
-        p.events.add(new SimpleEntry<>(new Date(),  eventMsg));
-        sendNotification(Notification.Type.MISC , eventMsg);
+        // 700 and 750 carry the user number
+        final int user = data.length() >= 5 ? Integer.parseInt(data.substring(1, 5)) : 0;
+        log("Updating partition=" + p.pid +  ", event=" + code + ", user=" + user);
+        p.events.add(replaying ? recordedAt : System.currentTimeMillis(), code, p.pid, user);
+        if(notifying()) sendNotification(Notification.Type.MISC , eventText(code, user), p.pid, null, null, false);
+    }
+    
+    /**
+     * @return the description of a partition event, rendered only when somebody reads it
+     */
+    static String eventText(int code, int user)
+    {
+        switch(code)
+        {
+            case 659: return "659 - Partition Failed to Arm. "
+                                + "An attempt to arm the partition has failed.";
+            case 660: return "660 - PGM Output is in Progress.";
+            case 663: return "663 - Chime Enabled. "
+                                + "The door chime feature has been enabled.";
+            case 664: return "664 - Chime Disabled. "
+                                + "The door chime feature has been disabled.";
+            case 670: return "670 - Invalid Access Code. "
+                                + "An access code that was entered was invalid.";
+            case 671: return "671 - Function Not Available. "
+                                + "A function that was selected is not available.";
+            case 672: return "672 - Failure to Arm. "
+                                + "An attempt was made to arm the partition and it failed.";
+            case 674: return "674 - System Arming in Progress. "
+                                + "This system is auto-arming and is in arm warning delay.";
+            case 700: return "700 - User Closing. "
+                                + "A partition has been armed by a user '" + userCode(user)
+                                + "' – sent at the end of exit delay.";
+            case 701: return "701 - Special Closing. "
+                                + "A partition has been armed by one of the following methods: "
+                                + "Quick Arm, Auto Arm, Keyswitch, DLS software, Wireless Key.";
+            case 702: return "702 - Partial Closing. "
+                                + "A partition has been armed but one or more zones have been bypassed.";
+            case 750: return "750 - User Opening."
+                                + "A partition has been disarmed by a user " + userCode(user);
+            case 751: return "751 - Special Opening. "
+                                + "A partition has been disarmed by one of the following methods: "
+                                + "Keyswitch, DLS software, Wireless Key";
+            default: return code + " - Unknown event.";
+        }
+    }
+    
+    private static String userCode(int user)
+    {
+        final String str = "000" + user;
+        return str.substring(str.length() - 4);
     }
     
     private void updateTrouble(String name, boolean restore)
     {
+        final TroubleState state = restore ? TroubleState.NORMAL : TroubleState.TROUBLE;
+        final TroubleState was = troubles.put(name, state);
+        if(was == state)
+        {
+            suppressed();
+            return;
+        }
         log("Updating trouble " + name + "restore=" + false);
-        troubles.put(name, restore ? TroubleState.NORMAL : TroubleState.TROUBLE);
-        sendNotification(Notification.Type.TROUBLE , name);
+        dirty |= TROUBLES;
+        sendNotification(Notification.Type.TROUBLE , name, Notification.NONE, was == null ? TroubleState.UNKNOWN : was, state, false);
     }
     
     private void troubleLed(String data, boolean on)
     {
         Partition p = parsePid(data);
+        if(p.trouble == on)
+        {
+            suppressed();
+            return;
+        }
         log("Updating partition=" + p.pid +  ", troubleLed=" + on);
         p.trouble = on;
-        sendNotification(Notification.Type.MISC , "Partition " + p.pid + " is in trouble");
+        changed(p);
+        sendNotification(Notification.Type.MISC , "Partition " + p.pid + " is in trouble", p.pid, null, null, false);
     }
     
     private void log(String string)
     {
-        log.info(string);
+        if(!replaying) log.info(string);
     }
 
     private void log(String string, Exception e)
@@ -461,73 +903,235 @@ public class DscPanel
         log.error(string, e);
     }
 
+    /**
+     * Publishes the state changed by the packet just applied as a new snapshot, copying only the sections
+     * that changed. Only called by the updater.
+     */
+    private void publish()
+    {
+        // even a packet that changes nothing confirms restored state
+        if(dirty == 0 && !snapshot.isStale()) return;
+        final PanelSnapshot prev = snapshot;
+        Map<Integer, Partition> parts = prev.partitionMap();
+        if((dirty & PARTITIONS) != 0)
+        {
+            parts = new HashMap<>(parts);
+            for(Partition p : partitions.values())
+                if((dirtyPartitions & (1 << p.pid)) != 0) parts.put(p.pid, new Partition(p));
+            parts = Collections.unmodifiableMap(parts);
+        }
+        snapshot = new PanelSnapshot(prev, false,
+                    (dirty & DATETIME) != 0 ? new Date(dateTime.getTime()) : prev.dateTime(),
+                    (dirty & ZONES) != 0 ? zones.copy() : prev.zoneStore(),
+                    parts,
+                    (dirty & LEDS) != 0 ? Arrays.stream(keyPad).map(Led::new).toArray(Led[]::new) : prev.leds(),
+                    (dirty & ALARMS) != 0 ? Collections.unmodifiableMap(new HashMap<>(alarms)) : prev.alarmMap(),
+                    (dirty & TROUBLES) != 0 ? Collections.unmodifiableMap(new HashMap<>(troubles)) : prev.troubleMap());
+        dirty = dirtyPartitions = 0;
+    }
+    
+    /**
+     * @return the panel state as of the last applied packet, never changes once returned
+     */
+    public PanelSnapshot snapshot()
+    {
+        return snapshot;
+    }
+    
+    /**
+     * @return true if the panel state changed after the given {@link PanelSnapshot#getVersion() version}
+     */
+    public boolean changedSince(long version)
+    {
+        return snapshot.changedSince(version);
+    }
+
+    /**
+     * @return true if the state was restored from the state file and nothing was received from the panel yet
+     */
+    public boolean isStale()
+    {
+        return snapshot.isStale();
+    }
+
     /**
      * @return the dateTime
      */
     public Date getDateTime()
     {
-        return dateTime;
+        return snapshot.getDateTime();
+    }
+
+    /**
+     * @return the number of packets with this command code that had no state handler
+     */
+    public long unhandledCount(int cmdCode)
+    {
+        return cmdHandlers.unhandledCount(cmdCode);
+    }
+
+    /**
+     * @return the number of packets with this command code that were dropped because they repeated the
+     * current state
+     */
+    public long suppressedCount(int cmdCode)
+    {
+        return cmdHandlers.suppressedCount(cmdCode);
     }
 
     public String getKeypadLeds()
     {
-        return Arrays.stream(keyPad).map(led -> led.toJson()).collect(Collectors.joining(",\n", "{\n", "}\n"));
+        return snapshot.getKeypadLeds();
     }
 
     public Stream<String> alarms()
     {
-        return alarms.entrySet().stream().filter(e -> e.getValue() == AlarmState.ALARM).map(e -> e.getKey());
+        return snapshot.alarms();
     }
 
     public Stream<String> troubles()
     {
-        return troubles.entrySet().stream().filter(e -> e.getValue() == TroubleState.TROUBLE).map(e -> e.getKey());
+        return snapshot.troubles();
     }
     
     public Stream<Integer> problemZones()
     {
-        return zones.values().stream().filter(z -> z.hasProblem()).map(z -> z.zid);
+        return snapshot.problemZoneSet().stream().boxed();
     }
     
     public Stream<Integer> openZones()
     {
-        return zones.values().stream().filter(z -> z.general == ZoneState.OPEN).map(z -> z.zid);
+        return snapshot.openZoneSet().stream().boxed();
+    }
+    
+    /**
+     * @return the ids of zones that are open
+     */
+    public BitSet openZoneSet()
+    {
+        return snapshot.openZoneSet();
+    }
+    
+    /**
+     * @return the ids of zones that are faulted
+     */
+    public BitSet faultedZoneSet()
+    {
+        return snapshot.faultedZoneSet();
+    }
+    
+    /**
+     * @return the ids of zones that are in alarm
+     */
+    public BitSet alarmedZoneSet()
+    {
+        return snapshot.alarmedZoneSet();
+    }
+    
+    /**
+     * @return the ids of zones that are faulted, tampered or in alarm
+     */
+    public BitSet problemZoneSet()
+    {
+        return snapshot.problemZoneSet();
     }
     
     public Optional<String> getZone(int zoneId)
     {
-        return Optional.ofNullable(zones.get(zoneId)).map(z -> z.toJson());
+        return snapshot.getZone(zoneId);
     }
     
     public Optional<String> getPartition(int partId)
     {
-        return Optional.ofNullable(partitions.get(partId)).map(z -> z.toJson());
+        return snapshot.getPartition(partId);
     }
 
     public Stream<String> zones()
     {
-        return zones.values().stream().map(z -> z.toJson());
+        return snapshot.zones();
     }
     
     public Stream<String> partitions()
     {
-        return partitions.values().stream().map(z -> z.toJson());
+        return snapshot.partitions();
+    }
+    
+    /**
+     * @return the recent events of the partition, oldest first, with their descriptions
+     */
+    public Stream<Entry<Date, String>> events(int partId)
+    {
+        final Partition p = snapshot.partitionMap().get(partId);
+        if(p == null) return Stream.empty();
+        final List<Entry<Date, String>> events = new ArrayList<>();
+        p.events.forEach((ts, code, pid, user) -> events.add(new SimpleEntry<>(new Date(ts), eventText(code, user))));
+        return events.stream();
+    }
+    
+    /**
+     * @return the whole panel state as one json document
+     */
+    public String toJson()
+    {
+        return snapshot.toJson();
+    }
+    
+    /**
+     * Streams the whole panel state, e.g. as one element of a dump of many panels.
+     */
+    public void writeJson(JsonWriter w) throws IOException
+    {
+        snapshot.writeJson(w);
     }
     
     public void close()
     {
-        asyncUpdater.shutdown();
+        // the updater may be shared, wait for the packets already queued for this panel
         try
         {
-            asyncUpdater.awaitTermination(100, TimeUnit.MILLISECONDS);
+            CompletableFuture.runAsync(() -> {}, updater).get(100, TimeUnit.MILLISECONDS);
         }
         catch (InterruptedException e)
         {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted waiting for the updater of panel {}, saving the state as it is", id);
+        }
+        catch (TimeoutException e)
+        {
+            log.warn("Packets for panel {} still queued on its updater after 100ms, saving the state without them", id);
         }
+        catch (ExecutionException | RejectedExecutionException e)
+        {
+            log.warn("Could not wait for the updater of panel " + id + ", saving the state as it is", e);
+        }
+        saving.ifPresent(f -> f.cancel(false));
+        save();
+    }
+    
+    /**
+     * @return the notifications of state changes, to subscribe to
+     */
+    public NotificationBus notifications()
+    {
+        return notifications;
+    }
+    
+    private boolean notifying()
+    {
+        return notifications.hasSubscribers() && !replaying;
     }
     
-    private void sendNotification(Notification.Type type, String msg)
+    /**
+     * @param entity the zone or partition the notification is about
+     * @param coalescable true if the notification carries the latest state of the entity
+     */
+    private void sendNotification(Notification.Type type, String msg, int entity, Enum<?> oldState, Enum<?> newState,
+                                    boolean coalescable)
     {
-        notifier.ifPresent(n -> asyncUpdater.submit(() -> n.accept(new Notification(type, new Date(), msg))));
+        if(!notifying()) return;
+        final Object event = FlightEvents.startNotify();
+        final Notification n = new Notification(type, new Date(), msg, applying, entity, oldState, newState, coalescable);
+        notifications.publish(n);
+        FlightEvents.notified(event, id, applying, n);
     }   
 }
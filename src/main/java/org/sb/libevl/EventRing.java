@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size history of panel events kept as primitives, the oldest are overwritten once it is full.
+ * There is a single writer, the panel's updater, and any number of readers, none of which lock. Each slot
+ * carries the sequence number of the event in it; readers check it before and after reading the slot and
+ * skip events the writer overwrote meanwhile.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class EventRing
+{
+    public interface EventConsumer
+    {
+        void accept(long ts, int code, int partition, int arg);
+    }
+
+    /** per slot: sequence, epoch millis, code | partition | arg */
+    private static final int SEQ = 0, TS = 1, META = 2, SLOT = 3;
+
+    private final int mask;
+
+    private final AtomicLongArray slots;
+
+    /** number of events ever added */
+    private volatile long count;
+
+    /**
+     * @param capacity rounded up to a power of 2
+     */
+    public EventRing(int capacity)
+    {
+        if(capacity < 1 || capacity > 1 << 24) throw new IllegalArgumentException("Invalid capacity " + capacity);
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = Math.max(size, 1) - 1;
+        this.slots = new AtomicLongArray((mask + 1) * SLOT);
+        for(int i = 0; i <= mask; i++) slots.set(i * SLOT + SEQ, -1);
+    }
+
+    /**
+     * Only ever called from one thread.
+     * @param code the 3 digit command code of the event
+     * @param partition 0 to 15
+     * @param arg e.g. the user number, 0 if the event has none
+     */
+    public void add(long ts, int code, int partition, int arg)
+    {
+        final long seq = count;
+        final int slot = (int)(seq & mask) * SLOT;
+        slots.set(slot + SEQ, -1);
+        slots.set(slot + TS, ts);
+        slots.set(slot + META, (long)arg << 32 | (partition & 0xF) << 16 | code & 0xFFFF);
+        slots.set(slot + SEQ, seq);
+        count = seq + 1;
+    }
+
+    /**
+     * Calls the consumer for the events currently held, oldest first.
+     * @return the number of events passed to the consumer
+     */
+    public int forEach(EventConsumer con)
+    {
+        final long end = count;
+        int n = 0;
+        for(long seq = Math.max(0, end - capacity()); seq < end; seq++)
+        {
+            final int slot = (int)(seq & mask) * SLOT;
+            if(slots.get(slot + SEQ) != seq) continue;
+            final long ts = slots.get(slot + TS);
+            final long meta = slots.get(slot + META);
+            if(slots.get(slot + SEQ) != seq) continue;
+            con.accept(ts, (int)meta & 0xFFFF, (int)(meta >>> 16) & 0xF, (int)(meta >>> 32));
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of events ever added, including those overwritten
+     */
+    public long count()
+    {
+        return count;
+    }
+
+    public int capacity()
+    {
+        return mask + 1;
+    }
+}
@@ -8,12 +8,17 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * @author sameetb
  * @since 201612
  */
 public class EvictingQueue<E> extends ArrayBlockingQueue<E>
 {
+    private static final Logger log = LoggerFactory.getLogger(EvictingQueue.class);
+    
     /**
      * 
      */
@@ -24,7 +29,7 @@ public class EvictingQueue<E> extends ArrayBlockingQueue<E>
     
     public EvictingQueue(int capacity)
     {
-        this(capacity, e -> System.out.println("Evicting item " + e));
+        this(capacity, e -> log.debug("Evicting item {}", e));
     }
     
     public EvictingQueue(int capacity, Consumer<E> evCon)
@@ -33,31 +38,32 @@ public class EvictingQueue<E> extends ArrayBlockingQueue<E>
         this.evCon = evCon;
     }
 
+    /**
+     * Evicts as many of the oldest items as it takes to make room, so it never fails even if other threads
+     * are adding at the same time.
+     */
     @Override
     public boolean offer(E e)
     {
-        evictIfNecessary();
-        return super.offer(e);
+        while(!super.offer(e)) evict();
+        return true;
     }
 
     @Override
     public void put(E e) throws InterruptedException
     {
-        evictIfNecessary();
-        super.put(e);
+        offer(e);
     }
 
     @Override
     public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException
     {
-        evictIfNecessary();
-        return super.offer(e, timeout, unit);
+        return offer(e);
     }
 
-    private void evictIfNecessary()
+    private void evict()
     {
-        if(remainingCapacity() == 0) 
-            Optional.ofNullable(super.poll()).ifPresent(evCon);
+        Optional.ofNullable(super.poll()).ifPresent(evCon);
     }
 
 }
@@ -3,29 +3,34 @@
  */
 package org.sb.libevl;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InterruptedIOException;
+import java.io.InvalidObjectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.util.AbstractMap.SimpleEntry;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.function.Supplier;
-import java.net.SocketException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,61 +38,108 @@ import org.slf4j.LoggerFactory;
  * @author sameetb
  * @since 201612
  */
-public class EvlConnection
+public class EvlConnection implements MetricsSource
 {
     private static final Logger log = LoggerFactory.getLogger(EvlConnection.class);
 
-    private static final int ACK_TIMEOUT_MS = 100;
+    private static final int ACK_TIMEOUT_MS = 2000;
+    
+    /**
+     * The TPI reports a buffer overrun if a command arrives while another is being processed, so by default 
+     * a command is only written once the previous one has been acknowledged.
+     */
+    private static final int DEFAULT_ACK_WINDOW = 1;
+    
+    private static final Set<Integer> codeCmds = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(33, 40, 200)));
 
-    private static final int CONN_TIMEOUT_MS = 60000;
+    static final int CONN_TIMEOUT_MS = 60000;
     
-    private static final String EOT = "\r\n";
+    static final int LOGIN_TIMEOUT_MS = 30000;
     
-    private final Socket socket;
+    static final byte[] EOT = {'\r', '\n'};
     
-    private final BufferedReader sockIn;
+    /**
+     * The transport underneath a connection, either a dedicated blocking socket or a channel multiplexed by 
+     * {@link EvlConnectionManager}. Received frames are handed to {@link EvlConnection#receiver()}.
+     */
+    interface Link
+    {
+        /**
+         * Starts delivering received frames, called once the connection is fully constructed.
+         */
+        void start();
+        
+        void write(Packet pkt) throws IOException;
+        
+        boolean isOpen();
+        
+        void close();
+    }
     
-    private final PrintWriter sockOut;
+    private final Link link;
     
     private final Function<Packet, Boolean> stateHandler;
     
-    private final ConcurrentHashMap<Predicate<Packet>, PacketFlow> replyActions;
+    private static final int REPLY_EXPIRY_MS = 60000;
+    
+    private final ReplyActions replyActions = new ReplyActions(REPLY_EXPIRY_MS, TimeUnit.MILLISECONDS);
+    
+    private final Executor asyncSender;
+    
+    private final Optional<ExecutorService> ownedSender;
     
-    private final ExecutorService asyncSender;
+    private final PendingCommands pending;
     
-    private final SimpleEntry<Integer, Packet> ack = new SimpleEntry<>(0, null);
+    private final CompletableFuture<Void> loggedIn = new CompletableFuture<>();
+    
+    private final Supplier<String> creds;
+    
+    private int loginStep;
     
     public EvlConnection(InetAddress ip, Optional<Integer> port, Supplier<String> creds,
            Function<Packet, Boolean> stateHandler) throws IOException, InterruptedException
     {
-        socket = new Socket();
-        log.info("Connecting to {}:{}", ip, port.orElse(4025));
-        socket.connect(new InetSocketAddress(ip, port.orElse(4025)), CONN_TIMEOUT_MS);
-        
-        sockIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        
-        sockOut = new PrintWriter(socket.getOutputStream(), true);
-        
-        asyncSender = Executors.newSingleThreadExecutor();
+        this.creds = creds;
+        this.stateHandler = stateHandler;
+        final ExecutorService sender = EvlExecutors.current().newSingleThreadExecutor("evl-sender-");
+        asyncSender = sender;
+        ownedSender = Optional.of(sender);
+        pending = new PendingCommands(this::write, sender, DEFAULT_ACK_WINDOW, ACK_TIMEOUT_MS);
         try
         {
-            IOException io = 
-            asyncSender.submit(() -> {
-                try
-                {
-                    login(creds);
-                    return null;
-                }
-                catch(IOException ex)
-                {
-                    return ex;
-                }
-            }).get(30, TimeUnit.SECONDS);
-            if(io != null)
-	    {
-                 close();
-		 throw io;
-	    }
+            link = new SocketLink(new InetSocketAddress(ip, port.orElse(4025)));
+        }
+        catch(IOException io)
+        {
+            sender.shutdown();
+            throw io;
+        }
+        link.start();
+        awaitLogin(LOGIN_TIMEOUT_MS);
+    }
+    
+    EvlConnection(Function<EvlConnection, Link> linkFactory, Supplier<String> creds, 
+                    Function<Packet, Boolean> stateHandler, Executor asyncSender)
+    {
+        this.creds = creds;
+        this.stateHandler = stateHandler;
+        this.asyncSender = asyncSender;
+        this.ownedSender = Optional.empty();
+        this.pending = new PendingCommands(this::write, asyncSender, DEFAULT_ACK_WINDOW, ACK_TIMEOUT_MS);
+        this.link = linkFactory.apply(this);
+        link.start();
+    }
+    
+    CompletableFuture<Void> loggedIn()
+    {
+        return loggedIn;
+    }
+    
+    void awaitLogin(long timeoutMs) throws IOException, InterruptedException
+    {
+        try
+        {
+            loggedIn.get(timeoutMs, TimeUnit.MILLISECONDS);
         }
         catch(TimeoutException to)
         {
@@ -101,36 +153,68 @@ public class EvlConnection
             if(th instanceof IOException) throw (IOException)th;
             throw new IOException(th);
         }
-        
-        replyActions = new ConcurrentHashMap<>();
-        this.stateHandler = stateHandler;
-        Thread th = new Thread(new MsgReader());
-        th.setDaemon(true);
-        th.start();
+        catch (InterruptedException e)
+        {
+            close();
+            throw e;
+        }
     }
     
-    private void login(Supplier<String> creds) throws IOException
+    /**
+     * Drives the login handshake from the packets received on the link, the credentials are looked up
+     * on the sender so that a slow supplier does not hold up the reader.
+     */
+    private void login(Packet pkt)
     {
-        Packet pkt = receive();
-        if(pkt.getCmdCode() == 505 && pkt.getData().equals("3"))
+        switch(loginStep)
         {
-            send(new Packet(005, Optional.ofNullable(creds.get()).orElse("")), false);
-            pkt = receive();
-	    if(pkt.getCmdCode() != 500) throw new IOException("Login command failed ack " + pkt);
-            pkt = receive();
-            if(pkt.getCmdCode() == 505)
-            {
-                switch(Integer.valueOf(pkt.getData()))
+            case 0:
+                if(pkt.getCmdCode() == 505 && pkt.getData().equals("3"))
                 {
-                    case 0: throw new IOException("Password provided was incorrect, resp=" + pkt);
-                    case 1: log("Password Correct, session established");
-                            return;
-                    case 2: throw new IOException("Time out. You did not send a password within 10 seconds, resp=" + pkt);
-                    case 3: throw new IOException("Password not provided, resp=" + pkt);
+                    loginStep++;
+                    asyncSender.execute(() -> {
+                        try
+                        {
+                            write(new Packet(005, Optional.ofNullable(creds.get()).orElse("")));
+                        }
+                        catch(Exception ex)
+                        {
+                            loggedIn.completeExceptionally(ex);
+                        }
+                    });
+                    return;
                 }
-            }
+                break;
+            case 1:
+                if(pkt.getCmdCode() != 500) 
+                {
+                    loggedIn.completeExceptionally(new IOException("Login command failed ack " + pkt));
+                    return;
+                }
+                loginStep++;
+                return;
+            case 2:
+                if(pkt.getCmdCode() == 505)
+                {
+                    switch(pkt.getData())
+                    {
+                        case "0": loggedIn.completeExceptionally(
+                                        new IOException("Password provided was incorrect, resp=" + pkt));
+                                  return;
+                        case "1": log("Password Correct, session established");
+                                  loggedIn.complete(null);
+                                  return;
+                        case "2": loggedIn.completeExceptionally(
+                                        new IOException("Time out. You did not send a password within 10 seconds, resp=" + pkt));
+                                  return;
+                        case "3": loggedIn.completeExceptionally(
+                                        new IOException("Password not provided, resp=" + pkt));
+                                  return;
+                    }
+                }
+                break;
         }
-        throw new IOException("Login interaction failed, resp=" + pkt);
+        loggedIn.completeExceptionally(new IOException("Login interaction failed, resp=" + pkt));
     }
     
     private void log(String string)
@@ -143,149 +227,337 @@ public class EvlConnection
         log.error(string, e);
     }
 
+    /**
+     * Sends the command and waits for it to be acknowledged.
+     * @throws CommandRejectedException if the TPI answered with a negative acknowledgement
+     * @throws IOException if the command could not be written or was not acknowledged in time
+     */
     public void send(Packet pkt) throws IOException
     {
-        send(pkt, true);
+        await(sendCommand(pkt));
     }
     
-    private void send(Packet pkt, boolean checkAck) throws IOException
+    /**
+     * Queues the command to be written as soon as the in-flight window allows.
+     * @return a future completed with the 500 acknowledgement of this command, or exceptionally with a
+     * {@link CommandRejectedException} or an {@link IOException}
+     */
+    public CompletableFuture<Packet> sendCommand(Packet pkt)
     {
-        synchronized (sockOut)
-        {
-            log.trace("sending {}", pkt);
-            ack.setValue(null);
-	    String line = pkt.serialize();
-            sockOut.print(line);
-            sockOut.print(EOT);
-	    sockOut.flush();
-            log.trace("sent packet code:{}", pkt.getCmdCode());
-            if(checkAck)checkAck(pkt);
-        }
+        return pending.submit(pkt);
+    }
+    
+    private void write(Packet pkt) throws IOException
+    {
+        log.trace("sending {}", pkt);
+        link.write(pkt);
+        log.trace("sent packet code:{}", pkt.getCmdCode());
     }
 
-    private void checkAck(Packet pkt) throws IOException
+    private static Packet await(CompletableFuture<Packet> ack) throws IOException
     {
-        synchronized(ack)
+        try
         {
-            try
-            {
-                ack.wait(ACK_TIMEOUT_MS);
-                Packet ap = ack.getValue();
-                if(ap != null) throw new IOException("Command packet " + pkt + ", received negative ack " + ap);
-            }
-            catch (InterruptedException e)
-            {
-                log.trace("ack check interrupted");
-            }
+            return ack.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable th = e.getCause();
+            if(th instanceof IOException) throw (IOException)th;
+            throw new IOException(th);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("ack wait interrupted");
         }
     }
 
     public void send(PacketFlow pktFlow) throws IOException
     {
-        send(pktFlow.getPkt());
-        pktFlow.getReplyAction().ifPresent(ra -> replyActions.put(ra.getKey(), ra.getValue()));
+        await(sendCommand(pktFlow));
     }
     
-    private Packet receive() throws IOException
+    /**
+     * Registers the reply action, if any, before the command is written so that a fast reply is not missed.
+     */
+    public CompletableFuture<Packet> sendCommand(PacketFlow pktFlow)
     {
-        final Packet pkt = Packet.deserialize(sockIn.readLine());
-        log.trace("Received {}", pkt);
-        return pkt;
+        pktFlow.getReplyAction().ifPresent(ra -> replyActions.register(ra, pktFlow.replyCodes()));
+        final CompletableFuture<Packet> ack = sendCommand(pktFlow.getPkt());
+        pktFlow.getReplyAction().ifPresent(ra -> ack.whenComplete((a, th) -> {
+            if(th != null) replyActions.remove(ra.getKey(), ra.getValue());
+        }));
+        return ack;
     }
     
-    private class MsgReader implements Runnable
+    /**
+     * Sets the number of commands that may be awaiting acknowledgement at the same time.
+     */
+    public void setAckWindow(int window)
     {
-        public void run()
+        pending.setWindow(window);
+    }
+    
+    /**
+     * Replaces the pacing of the commands written, by default {@link SendPacer#defaults()}.
+     */
+    public void setPacer(SendPacer pacer)
+    {
+        pending.setPacer(pacer);
+    }
+    
+    FrameDecoder.FrameHandler receiver()
+    {
+        return receiver;
+    }
+    
+    private final FrameDecoder.FrameHandler receiver = new FrameDecoder.FrameHandler()
+    {
+        @Override
+        public void onPacket(MutablePacket mp)
         {
-            while(!socket.isInputShutdown())
+            final Object event = FlightEvents.startReceive();
             try
             {
-                processPacket(receive());
+                final Packet pkt = mp.toPacket();
+                StageProbe.packet(StageProbe.Stage.DECODED, pkt);
+                log.trace("Received {}", pkt);
+                if(loggedIn.isDone()) processPacket(pkt);
+                else login(pkt);
+                FlightEvents.received(event, pkt.getCmdCode());
             }
             catch (Exception e) 
             {
-		        if((e instanceof SocketException || e instanceof IOException) && socket.isClosed())
-		        {
-			        log.info("socket closed.");
-			        return;
-		        }
-                log.error("Exception during packet receive/processing", e);
-           }
+                log.error("Exception during packet processing", e);
+            }
         }
-    }
+
+        @Override
+        public void onError(InvalidObjectException ex)
+        {
+            badPackets.incrementAndGet();
+            log.error("Exception during packet receive", ex);
+        }
+    };
     
-    public void close()
+    /**
+     * A dedicated blocking socket, with its own reader thread. The reader reads whatever the socket has 
+     * available and drains every complete frame in the buffer before reading again, so a status report 
+     * burst is handled in a single wakeup.
+     */
+    private class SocketLink implements Link, Runnable
     {
-        sockOut.close();
-        try
+        private final SocketChannel channel;
+        
+        private final FrameDecoder sockIn = new FrameDecoder();
+        
+        private final ByteBuffer sockOut = ByteBuffer.allocateDirect(1024);
+        
+        SocketLink(InetSocketAddress addr) throws IOException
         {
-            sockIn.close();
+            channel = SocketChannel.open();
+            log.info("Connecting to {}", addr);
+            try
+            {
+                channel.socket().connect(addr, CONN_TIMEOUT_MS);
+            }
+            catch(IOException io)
+            {
+                channel.close();
+                throw io;
+            }
         }
-        catch (IOException e)
+        
+        @Override
+        public void start()
         {
-            log.warn("", e);
+            EvlExecutors.current().newThread("evl-reader-" + channel.socket().getRemoteSocketAddress(), this).start();
         }
-        try
+        
+        @Override
+        public void run()
         {
-            socket.close();
+            while(channel.isOpen())
+            try
+            {
+                if(sockIn.read(channel) < 0)
+                {
+                    log.info("socket closed by peer.");
+                    EvlConnection.this.close();
+                    return;
+                }
+                sockIn.drain(receiver);
+            }
+            catch (IOException e) 
+            {
+                if(!channel.isOpen())
+                {
+                    log.info("socket closed.");
+                    return;
+                }
+                log.error("Exception during packet receive", e);
+            }
         }
-        catch (IOException e)
+
+        @Override
+        public void write(Packet pkt) throws IOException
         {
-            log.warn("", e);
+            synchronized(sockOut)
+            {
+                ((Buffer)sockOut).clear();
+                PacketCodec.encode(pkt, sockOut);
+                sockOut.put(EOT);
+                ((Buffer)sockOut).flip();
+                while(sockOut.hasRemaining()) channel.write(sockOut);
+            }
         }
-        asyncSender.shutdown();
-        try
+
+        @Override
+        public boolean isOpen()
         {
-            asyncSender.awaitTermination(100, TimeUnit.MILLISECONDS);
+            return channel.isOpen();
         }
-        catch (InterruptedException e)
+
+        @Override
+        public void close()
         {
-            log.warn("", e);
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("", e);
+            }
         }
     }
+    
+    void close(IOException cause)
+    {
+        loggedIn.completeExceptionally(cause);
+        close();
+    }
+    
+    public void close()
+    {
+        link.close();
+        final EOFException closed = new EOFException("Connection closed");
+        loggedIn.completeExceptionally(closed);
+        pending.failAll(closed);
+        ownedSender.ifPresent(sender -> {
+            sender.shutdown();
+            try
+            {
+                sender.awaitTermination(100, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                log.warn("", e);
+            }
+        });
+    }
 
+    /**
+     * Acknowledgements are looked up by command code, every other packet goes to the reply actions and then 
+     * the state handler. Packets none of them take are only counted, see {@link #unhandledCount(int)}.
+     */
     public void processPacket(Packet pkt)
     {
-        if(!commandAck((pkt))
-            && !processReplyAction(pkt) 
-            && !updateState(pkt))
-            log.warn("Did not process packet {}", pkt);
+        final int code = pkt.getCmdCode();
+        if(code >= 0 && code < CommandTable.SIZE) received.incrementAndGet(code);
+        final Object event = FlightEvents.startProcess();
+        final Consumer<Packet> ackHandler = ackHandlers.get(code);
+        final String handledBy;
+        if(ackHandler != null)
+        {
+            ackHandler.accept(pkt);
+            handledBy = "ack";
+        }
+        else if(processReplyAction(pkt)) handledBy = "reply";
+        else if(updateState(pkt)) handledBy = "state";
+        else
+        {
+            ackHandlers.unhandled(code);
+            log.debug("Did not process packet {}", pkt);
+            handledBy = "none";
+        }
+        FlightEvents.processed(event, code, handledBy);
     }
 
-    private boolean commandAck(Packet pkt)
+    /** counted per command code */
+    private final AtomicLongArray received = new AtomicLongArray(CommandTable.SIZE);
+    
+    /** counted per 502 error code */
+    private final AtomicLongArray systemErrors = new AtomicLongArray(CommandTable.SIZE);
+    
+    /** frames that failed the checksum or did not parse */
+    private final AtomicLong badPackets = new AtomicLong();
+    
+    @Override
+    public void collect(MetricsVisitor visitor)
     {
-        switch(pkt.getCmdCode())
+        EvlMetrics.perCode(visitor, "evl_packets_received_total", "Packets received after login, by command code",
+                            received);
+        visitor.counter("evl_checksum_failures_total", "Frames that failed the checksum or did not parse",
+                            badPackets.get());
+        ackHandlers.collect(visitor, "evl_");
+        for(int code = 0; code < systemErrors.length(); code++)
         {
-            case 500: 
-                log.trace("Got ack for command {}", pkt.getData());
-                notifyAck(null);
-                return true;
-            case 501:
-                log.error("A command had been sent with a bad checksum");
-                notifyAck(pkt);
-                return true;
-            case 502:
-                log.error("A system error has been detected");
-                processSystemError(pkt);
-                return true;
-            case 670:
-                log.error("An access code that was entered was invalid");
-                notifyAck(pkt);
-                return true;
-            default:
-                return false;
+            final long n = systemErrors.get(code);
+            if(n != 0) visitor.counter("evl_system_errors_total", "502 system errors, by error code", n,
+                                        "code", String.format("%03d", code),
+                                        "error", sysErrorCodes.getOrDefault(code, "unknown"));
         }
+        final int depth = EvlMetrics.queueDepth(asyncSender);
+        if(depth >= 0) visitor.gauge("evl_sender_queue_depth", "Sends waiting for the sender", depth);
+        visitor.gauge("evl_commands_in_flight", "Commands sent and not yet acknowledged", pending.inFlight());
+        visitor.gauge("evl_commands_queued", "Commands waiting for room in the ack window", pending.queued());
+        visitor.gauge("evl_reply_actions_pending", "Reply actions waiting for their packet", replyActions.size());
+        visitor.gauge("evl_send_rate", "Commands per second the sender is paced to", pending.rate());
+        visitor.counter("evl_commands_retried_total", "Commands sent again after the TPI was busy", pending.retried());
+        pending.ackTimes.collect("evl_ack_seconds", "Time from sending a command to its ack", visitor);
+    }
+    
+    /**
+     * @return the number of packets with this command code that nothing handled
+     */
+    public long unhandledCount(int cmdCode)
+    {
+        return ackHandlers.unhandledCount(cmdCode);
     }
 
-    private void notifyAck(Packet pkt)
+    private final CommandTable<Consumer<Packet>> ackHandlers = new CommandTable<Consumer<Packet>>()
+            {{
+                put(500, EvlConnection.this::commandAck);
+                put(501, pkt -> {
+                    log.error("A command had been sent with a bad checksum");
+                    EvlConnection.this.pending.nack(cmd -> true, pkt);
+                });
+                put(502, pkt -> {
+                    log.error("A system error has been detected");
+                    processSystemError(pkt);
+                });
+                put(670, pkt -> {
+                    log.error("An access code that was entered was invalid");
+                    EvlConnection.this.pending.nack(cmd -> codeCmds.contains(cmd.getCmdCode()), pkt);
+                });
+            }};
+
+    private void commandAck(Packet pkt)
     {
-        synchronized(ack)
+        log.trace("Got ack for command {}", pkt.getData());
+        try
+        {
+            if(!pending.ack(Integer.parseInt(pkt.getData()), pkt)) 
+                log.trace("No command waiting for ack {}", pkt);
+        }
+        catch(NumberFormatException e)
         {
-            ack.setValue(pkt);
-            ack.notify();
+            log.warn("Malformed ack {}", pkt);
         }
     }
-    
+
     private static final Map<Integer, String> sysErrorCodes = Collections.unmodifiableMap(new HashMap<Integer, String>()
             {{
                 put(0,"No Error");
@@ -311,11 +583,19 @@ public class EvlConnection
                 put(27,"API Invalid Characters in Command (no alpha characters are allowed except for checksum)");
             }});
     
+    /**
+     * The command was not taken up but may be if sent again a little later. Lockout and installers mode last
+     * minutes, so commands turned away by them fail right away.
+     */
+    private static final Set<Integer> busyErrCodes = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(1, 2, 15, 18)));
+    
     private void processSystemError(Packet pkt)
     {
         int errCode = Integer.parseInt(pkt.getData().substring(0, 3));
+        if(errCode >= 0 && errCode < CommandTable.SIZE) systemErrors.incrementAndGet(errCode);
         log.info("System error code = " + errCode +  ", message = " + sysErrorCodes.getOrDefault(errCode, "unknown"));
-        if(errCode >= 20) notifyAck(pkt);
+        if(errCode >= 20 || errCode == 16 || errCode == 17) pending.nack(cmd -> true, pkt);
+        else if(busyErrCodes.contains(errCode)) pending.busy(pkt);
     }
 
     private boolean updateState(Packet pkt)
@@ -325,36 +605,30 @@ public class EvlConnection
 
     private boolean processReplyAction(Packet pkt)
     {
-        return 
-        replyActions.keySet().stream().filter(pred -> pred.test(pkt))
-                 .findAny()
-                 .map(pred -> replyActions.remove(pred))
-                 .map(s ->   {
-                                 log.trace("processing reply action for packet {}", pkt);
-                                 sendAsync(s); 
-                                 return true;
-                             })
-                 .orElse(false);
+        final PacketFlow s = replyActions.take(pkt);
+        if(s == null) return false;
+        log.trace("processing reply action for packet {}", pkt);
+        sendAsync(s); 
+        return true;
     }
 
+    /**
+     * Builds the packet on the sender, as it may need to prompt for a code, and pipelines it without waiting.
+     * @return a future completed with whether the command was acknowledged
+     */
     public Future<Boolean> sendAsync(PacketFlow pktFlow)
     {
-        return asyncSender.submit(() ->   {
-            try
-            {
-                send(pktFlow);
-                return true;
-            }
-            catch(Exception io)
-            {
-                log.error("Failed to send packet " + pktFlow.getPkt(), io);
-                return false;
-            }
-        });
+        return CompletableFuture.supplyAsync(() -> sendCommand(pktFlow), asyncSender)
+                                .thenCompose(ack -> ack)
+                                .handle((ack, th) -> {
+                                    if(th == null) return true;
+                                    log.error("Failed to send packet flow", th);
+                                    return false;
+                                });
     }
     
     public boolean isAlive()
     {
-    	return !socket.isClosed();
+    	return link.isOpen();
     }
 }
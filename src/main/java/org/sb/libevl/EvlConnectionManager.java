@@ -0,0 +1,362 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Multiplexes many panel connections over a small number of NIO selector event loops. Each connection is
+ * still an {@link EvlConnection} with the usual {@code send}/{@code sendAsync}/{@code stateHandler} behaviour,
+ * but reads happen on the shared event loops and async sends run on a shared sender pool, one at a time per
+ * connection.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class EvlConnectionManager
+{
+    private static final Logger log = LoggerFactory.getLogger(EvlConnectionManager.class);
+
+    private final EventLoop[] loops;
+
+    private final ExecutorService senders;
+
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    private final Set<ChannelLink> links = ConcurrentHashMap.newKeySet();
+
+    /**
+     * One event loop per core
+     */
+    public EvlConnectionManager() throws IOException
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EvlConnectionManager(int loopCount) throws IOException
+    {
+        this(loopCount, Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors(),
+                                                        daemonThreads("evl-sender-")));
+    }
+
+    public EvlConnectionManager(int loopCount, ExecutorService senders) throws IOException
+    {
+        if(loopCount < 1) throw new IllegalArgumentException("Need at least one event loop");
+        this.senders = senders;
+        loops = new EventLoop[loopCount];
+        for(int i = 0; i < loopCount; i++) loops[i] = new EventLoop("evl-loop-" + i);
+    }
+
+    static ThreadFactory daemonThreads(String prefix)
+    {
+        final AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread th = new Thread(r, prefix + count.getAndIncrement());
+            th.setDaemon(true);
+            return th;
+        };
+    }
+
+    /**
+     * Connects and logs in, blocking until the session is established.
+     */
+    public EvlConnection connect(InetAddress ip, Optional<Integer> port, Supplier<String> creds,
+            Function<Packet, Boolean> stateHandler) throws IOException, InterruptedException
+    {
+        final EvlConnection conn = open(ip, port, creds, stateHandler);
+        conn.awaitLogin(EvlConnection.CONN_TIMEOUT_MS + EvlConnection.LOGIN_TIMEOUT_MS);
+        return conn;
+    }
+
+    /**
+     * Connects and logs in without blocking, useful when bringing up many panels at once. The returned future
+     * completes once the session is established.
+     */
+    public CompletableFuture<EvlConnection> connectAsync(InetAddress ip, Optional<Integer> port, Supplier<String> creds,
+            Function<Packet, Boolean> stateHandler)
+    {
+        final EvlConnection conn;
+        try
+        {
+            conn = open(ip, port, creds, stateHandler);
+        }
+        catch(IOException io)
+        {
+            CompletableFuture<EvlConnection> failed = new CompletableFuture<>();
+            failed.completeExceptionally(io);
+            return failed;
+        }
+        return conn.loggedIn().thenApply(v -> conn);
+    }
+
+    private EvlConnection open(InetAddress ip, Optional<Integer> port, Supplier<String> creds,
+            Function<Packet, Boolean> stateHandler) throws IOException
+    {
+        final InetSocketAddress addr = new InetSocketAddress(ip, port.orElse(4025));
+        log.info("Connecting to {}", addr);
+        final SocketChannel channel = SocketChannel.open();
+        final boolean connected;
+        try
+        {
+            channel.configureBlocking(false);
+            connected = channel.connect(addr);
+        }
+        catch(IOException io)
+        {
+            channel.close();
+            throw io;
+        }
+        final EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+        return new EvlConnection(conn -> new ChannelLink(conn, loop, channel, connected), creds, stateHandler,
+                                    new SerialExecutor(senders));
+    }
+
+    /**
+     * @return the number of open connections
+     */
+    public int size()
+    {
+        return links.size();
+    }
+
+    public void close()
+    {
+        links.forEach(link -> link.conn.close());
+        for(EventLoop loop : loops) loop.close();
+        senders.shutdown();
+        try
+        {
+            senders.awaitTermination(100, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            log.warn("", e);
+        }
+    }
+
+    private static class EventLoop implements Runnable
+    {
+        private final Selector selector;
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private final Thread thread;
+
+        private volatile boolean running = true;
+
+        EventLoop(String name) throws IOException
+        {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void execute(Runnable task)
+        {
+            if(Thread.currentThread() == thread) task.run();
+            else
+            {
+                tasks.add(task);
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            while(running)
+            {
+                try
+                {
+                    selector.select();
+                    Runnable task;
+                    while((task = tasks.poll()) != null) task.run();
+                    final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while(it.hasNext())
+                    {
+                        final SelectionKey key = it.next();
+                        it.remove();
+                        ((ChannelLink)key.attachment()).handle(key);
+                    }
+                }
+                catch(Exception e)
+                {
+                    log.error("Exception in event loop " + thread.getName(), e);
+                }
+            }
+            try
+            {
+                selector.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("", e);
+            }
+        }
+
+        void close()
+        {
+            running = false;
+            selector.wakeup();
+        }
+    }
+
+    private class ChannelLink implements EvlConnection.Link
+    {
+        private final EvlConnection conn;
+
+        private final EventLoop loop;
+
+        private final SocketChannel channel;
+
+        private final FrameDecoder sockIn = new FrameDecoder(1024);
+
+        private final Queue<ByteBuffer> sockOut = new ConcurrentLinkedQueue<>();
+
+        private final boolean connected;
+
+        private SelectionKey key;
+
+        ChannelLink(EvlConnection conn, EventLoop loop, SocketChannel channel, boolean connected)
+        {
+            this.conn = conn;
+            this.loop = loop;
+            this.channel = channel;
+            this.connected = connected;
+        }
+
+        @Override
+        public void start()
+        {
+            links.add(this);
+            loop.execute(() -> {
+                try
+                {
+                    key = channel.register(loop.selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+                }
+                catch(ClosedChannelException ex)
+                {
+                    conn.close(ex);
+                }
+            });
+        }
+
+        void handle(SelectionKey key)
+        {
+            try
+            {
+                if(key.isConnectable())
+                {
+                    channel.finishConnect();
+                    key.interestOps(sockOut.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+                if(key.isReadable())
+                {
+                    if(channel.read(sockIn.buffer()) < 0)
+                    {
+                        log.info("socket closed by peer.");
+                        conn.close(new EOFException("Connection closed by peer"));
+                        return;
+                    }
+                    sockIn.drain(conn.receiver());
+                }
+                if(key.isValid() && key.isWritable()) flush();
+            }
+            catch(CancelledKeyException ex)
+            {
+                log.trace("key cancelled", ex);
+            }
+            catch(IOException ex)
+            {
+                log.error("Exception during packet receive", ex);
+                conn.close(ex);
+            }
+        }
+
+        private void flush()
+        {
+            if(key == null || !key.isValid() || !channel.isConnected()) return;
+            try
+            {
+                ByteBuffer buf;
+                while((buf = sockOut.peek()) != null)
+                {
+                    channel.write(buf);
+                    if(buf.hasRemaining())
+                    {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    sockOut.poll();
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            catch(IOException ex)
+            {
+                log.error("Exception during packet send", ex);
+                conn.close(ex);
+            }
+        }
+
+        @Override
+        public void write(Packet pkt) throws IOException
+        {
+            if(!channel.isOpen()) throw new ClosedChannelException();
+            final ByteBuffer buf = ByteBuffer.allocate(PacketCodec.encodedLength(pkt) + EvlConnection.EOT.length);
+            PacketCodec.encode(pkt, buf);
+            buf.put(EvlConnection.EOT);
+            ((Buffer)buf).flip();
+            sockOut.add(buf);
+            loop.execute(this::flush);
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close()
+        {
+            links.remove(this);
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("", e);
+            }
+        }
+    }
+}
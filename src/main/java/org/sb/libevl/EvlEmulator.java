@@ -0,0 +1,604 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emulates the Envisalink TPI of any number of panels, for load and latency testing without a real card.
+ * Every session logs in with the 505 handshake, gets every command acknowledged with 500, 501 if its checksum
+ * is bad or, at a configurable rate, 502 busy, and is sent broadcasts at a configurable rate. Broadcasts are
+ * replayed from a capture, see {@link PanelReplay#readCapture(java.nio.file.Path)}, or made up: mostly
+ * repeated keypad LEDs, zones opening and closing and partitions turning ready and not ready. A status
+ * report dumps the session's zones, partition and LEDs; arming and disarming change its partition.
+ * <p>
+ * Sessions are multiplexed on a few selector loops, so thousands of them fit on one machine.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class EvlEmulator implements Closeable
+{
+    private static final Logger log = LoggerFactory.getLogger(EvlEmulator.class);
+
+    public static class Options
+    {
+        private InetSocketAddress bind = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        private String password = "user";
+        private int zones = 64;
+        private double rate;
+        private Packet[] capture;
+        private double busy;
+        private int loops = Runtime.getRuntime().availableProcessors();
+
+        public static Options defaults()
+        {
+            return new Options();
+        }
+
+        /**
+         * Loopback and an ephemeral port by default.
+         */
+        public Options bind(InetSocketAddress bind)
+        {
+            this.bind = bind;
+            return this;
+        }
+
+        public Options password(String password)
+        {
+            this.password = password;
+            return this;
+        }
+
+        public Options zones(int zones)
+        {
+            if(zones < 1 || zones > 999) throw new IllegalArgumentException("Invalid zone count " + zones);
+            this.zones = zones;
+            return this;
+        }
+
+        /**
+         * @param perSecond broadcasts sent to each session every second once it is logged in, none by default
+         */
+        public Options rate(double perSecond)
+        {
+            this.rate = perSecond;
+            return this;
+        }
+
+        /**
+         * Broadcasts these packets, in a loop, instead of made up ones; each session starts at a different one.
+         */
+        public Options capture(List<Packet> capture)
+        {
+            this.capture = capture.toArray(new Packet[capture.size()]);
+            return this;
+        }
+
+        /**
+         * @param fraction of the commands answered with 502 busy instead of being acknowledged
+         */
+        public Options busy(double fraction)
+        {
+            this.busy = fraction;
+            return this;
+        }
+
+        public Options loops(int loops)
+        {
+            if(loops < 1) throw new IllegalArgumentException("Need at least one loop");
+            this.loops = loops;
+            return this;
+        }
+    }
+
+    /** the 502 code sent for a busy command, receive buffer overrun */
+    static final String BUSY = "001";
+
+    /**
+     * bytes a session may have waiting to be sent, broadcasts beyond it are dropped while replies wait in a
+     * backlog, with the session not reading further commands until it is sent
+     */
+    private static final int OUT_CAPACITY = 16 * 1024;
+
+    /** how often the loops send broadcasts that are due */
+    private static final long TICK_MS = 10;
+
+    /** the most broadcasts a session catches up with in one tick */
+    private static final int MAX_BURST = 256;
+
+    private static final Packet[] acks = new Packet[CommandTable.SIZE];
+    static
+    {
+        for(int i = 0; i < acks.length; i++) acks[i] = new Packet(500, String.format("%03d", i));
+    }
+
+    private final Options opts;
+
+    private final Packet[] zoneOpen, zoneClosed;
+
+    private final ServerSocketChannel server;
+
+    private final Loop[] loops;
+
+    private final Thread acceptor;
+
+    private final AtomicInteger sessionIds = new AtomicInteger();
+
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    private final LongAdder received = new LongAdder(), sent = new LongAdder(), dropped = new LongAdder();
+
+    private volatile boolean open = true;
+
+    public EvlEmulator(Options opts) throws IOException
+    {
+        this.opts = opts;
+        zoneOpen = new Packet[opts.zones + 1];
+        zoneClosed = new Packet[opts.zones + 1];
+        for(int z = 1; z <= opts.zones; z++)
+        {
+            zoneOpen[z] = new Packet(609, String.format("%03d", z));
+            zoneClosed[z] = new Packet(610, String.format("%03d", z));
+        }
+        server = ServerSocketChannel.open();
+        server.socket().bind(opts.bind, 1024);
+        loops = new Loop[opts.loops];
+        for(int i = 0; i < loops.length; i++) loops[i] = new Loop("evl-emulator-loop-" + i);
+        acceptor = new Thread(this::accept, "evl-emulator-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Emulating panels on {}", server.socket().getLocalSocketAddress());
+    }
+
+    public int port()
+    {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of sessions currently connected
+     */
+    public int sessions()
+    {
+        return sessions.get();
+    }
+
+    /**
+     * @return the number of packets received from all sessions
+     */
+    public long received()
+    {
+        return received.sum();
+    }
+
+    /**
+     * @return the number of packets queued for sending to all sessions
+     */
+    public long sent()
+    {
+        return sent.sum();
+    }
+
+    /**
+     * @return the number of broadcasts dropped because a session did not keep up
+     */
+    public long dropped()
+    {
+        return dropped.sum();
+    }
+
+    private void accept()
+    {
+        int next = 0;
+        while(open)
+        try
+        {
+            final SocketChannel ch = server.accept();
+            ch.configureBlocking(false);
+            ch.socket().setTcpNoDelay(true);
+            loops[next++ % loops.length].add(ch);
+        }
+        catch(IOException e)
+        {
+            if(open) log.error("Failed to accept", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        open = false;
+        server.close();
+        for(Loop loop : loops) loop.close();
+    }
+
+    private class Loop implements Runnable
+    {
+        private final Selector selector;
+
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+        private final List<Session> active = new ArrayList<>();
+
+        Loop(String name) throws IOException
+        {
+            selector = Selector.open();
+            final Thread th = new Thread(this, name);
+            th.setDaemon(true);
+            th.start();
+        }
+
+        void add(SocketChannel ch)
+        {
+            accepted.add(ch);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            while(open)
+            {
+                try
+                {
+                    selector.select(TICK_MS);
+                    SocketChannel ch;
+                    while((ch = accepted.poll()) != null) register(ch);
+                    final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while(it.hasNext())
+                    {
+                        final SelectionKey key = it.next();
+                        it.remove();
+                        ((Session)key.attachment()).handle(key);
+                    }
+                    final long now = System.nanoTime();
+                    for(int i = active.size() - 1; i >= 0; i--)
+                    {
+                        final Session s = active.get(i);
+                        if(s.closed) active.remove(i);
+                        else s.tick(now);
+                    }
+                }
+                catch(Exception e)
+                {
+                    log.error("Exception in emulator loop", e);
+                }
+            }
+            for(Session s : active) s.close();
+            try
+            {
+                selector.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("", e);
+            }
+        }
+
+        private void register(SocketChannel ch)
+        {
+            final Session s = new Session(sessionIds.incrementAndGet(), ch);
+            try
+            {
+                s.key = ch.register(selector, SelectionKey.OP_READ, s);
+            }
+            catch(ClosedChannelException e)
+            {
+                return;
+            }
+            sessions.incrementAndGet();
+            active.add(s);
+            s.send(new Packet(505, "3"));
+            s.flush();
+        }
+
+        void close()
+        {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * One emulated panel, only touched by its loop.
+     */
+    private class Session implements FrameDecoder.FrameHandler
+    {
+        private final int id;
+        private final SocketChannel ch;
+        private final FrameDecoder in = new FrameDecoder(1024);
+        private final ByteBuffer out = ByteBuffer.allocate(OUT_CAPACITY);
+        private final ArrayDeque<Packet> backlog = new ArrayDeque<>();
+        private final Random random;
+        private final BitSet open = new BitSet();
+        private SelectionKey key;
+        private boolean loggedIn, closing, closed;
+        private int armMode = -1;
+        private long start, broadcasts;
+
+        Session(int id, SocketChannel ch)
+        {
+            this.id = id;
+            this.ch = ch;
+            this.random = new Random(id);
+        }
+
+        void handle(SelectionKey key)
+        {
+            try
+            {
+                if(key.isReadable())
+                {
+                    if(ch.read(in.buffer()) < 0)
+                    {
+                        close();
+                        return;
+                    }
+                    in.drain(this);
+                }
+                flush();
+            }
+            catch(CancelledKeyException ex)
+            {
+                close();
+            }
+            catch(IOException ex)
+            {
+                log.debug("Session {} failed", id, ex);
+                close();
+            }
+        }
+
+        @Override
+        public void onPacket(MutablePacket pkt)
+        {
+            received.increment();
+            final int code = pkt.getCmdCode();
+            if(!loggedIn) login(code, pkt.getData());
+            else if(opts.busy > 0 && random.nextDouble() < opts.busy) send(new Packet(502, BUSY));
+            else
+            {
+                send(acks[code]);
+                command(code, pkt);
+            }
+        }
+
+        @Override
+        public void onError(InvalidObjectException ex)
+        {
+            received.increment();
+            send(new Packet(501));
+        }
+
+        private void login(int code, String data)
+        {
+            if(code != 5)
+            {
+                send(new Packet(502, "020"));
+                return;
+            }
+            send(acks[code]);
+            if(opts.password.equals(data))
+            {
+                send(new Packet(505, "1"));
+                loggedIn = true;
+                start = System.nanoTime();
+            }
+            else
+            {
+                send(new Packet(505, "0"));
+                closing = true;
+            }
+        }
+
+        private void command(int code, MutablePacket pkt)
+        {
+            switch(code)
+            {
+                case 1:
+                    for(int z = 1; z <= opts.zones; z++) send(open.get(z) ? zoneOpen[z] : zoneClosed[z]);
+                    send(partition());
+                    send(leds());
+                    break;
+                case 30: case 31: case 32: case 33:
+                    armMode = code == 31 ? 1 : code == 32 ? 2 : 0;
+                    send(new Packet(652, pkt.charAt(0) + String.valueOf(armMode)));
+                    break;
+                case 40:
+                    armMode = -1;
+                    send(new Packet(655, String.valueOf(pkt.charAt(0))));
+                    send(new Packet(750, pkt.charAt(0) + "0001"));
+                    break;
+                default:
+            }
+        }
+
+        private Packet partition()
+        {
+            if(armMode >= 0) return new Packet(652, "1" + armMode);
+            return new Packet(open.isEmpty() ? 650 : 651, "1");
+        }
+
+        private Packet leds()
+        {
+            return new Packet(510, armMode >= 0 ? "82" : open.isEmpty() ? "81" : "80");
+        }
+
+        /**
+         * Sends the broadcasts due by now.
+         */
+        void tick(long now)
+        {
+            if(loggedIn && opts.rate > 0)
+            {
+                final long due = (long)((now - start) * opts.rate / TimeUnit.SECONDS.toNanos(1));
+                for(int i = 0; broadcasts < due && i < MAX_BURST; i++, broadcasts++)
+                {
+                    final Packet pkt = broadcast();
+                    if(!backlog.isEmpty() || !fits(pkt)) dropped.increment();
+                    else send(pkt);
+                }
+                // a session that fell too far behind skips ahead rather than bursting forever
+                if(broadcasts < due) broadcasts = due;
+            }
+            flush();
+        }
+
+        private Packet broadcast()
+        {
+            if(opts.capture != null) return opts.capture[(int)((broadcasts + id) % opts.capture.length)];
+            if(broadcasts % 600 == 599) return new Packet(550, new SimpleDateFormat("HHmmssMMddyy").format(new Date()));
+            switch((int)(broadcasts % 8))
+            {
+                case 0:
+                case 4:
+                    final int z = 1 + random.nextInt(opts.zones);
+                    open.flip(z);
+                    return open.get(z) ? zoneOpen[z] : zoneClosed[z];
+                case 6:
+                    return partition();
+                default:
+                    return leds();
+            }
+        }
+
+        private boolean fits(Packet pkt)
+        {
+            return out.remaining() >= PacketCodec.encodedLength(pkt) + EvlConnection.EOT.length;
+        }
+
+        /**
+         * Queues a reply, which is never dropped.
+         */
+        void send(Packet pkt)
+        {
+            if(!backlog.isEmpty() || !fits(pkt))
+            {
+                backlog.add(pkt);
+                return;
+            }
+            encode(pkt);
+        }
+
+        private void encode(Packet pkt)
+        {
+            PacketCodec.encode(pkt, out);
+            out.put(EvlConnection.EOT);
+            sent.increment();
+        }
+
+        private void fill()
+        {
+            while(!backlog.isEmpty() && fits(backlog.peek())) encode(backlog.poll());
+        }
+
+        void flush()
+        {
+            if(closed || out.position() == 0 && !closing) return;
+            try
+            {
+                ((Buffer)out).flip();
+                ch.write(out);
+                out.compact();
+                fill();
+                if(out.position() == 0 && closing)
+                {
+                    close();
+                    return;
+                }
+                // no more commands are read while replies are backed up
+                key.interestOps((backlog.isEmpty() ? SelectionKey.OP_READ : 0)
+                                | (out.position() > 0 ? SelectionKey.OP_WRITE : 0));
+            }
+            catch(IOException | CancelledKeyException ex)
+            {
+                close();
+            }
+        }
+
+        void close()
+        {
+            if(closed) return;
+            closed = true;
+            sessions.decrementAndGet();
+            if(key != null) key.cancel();
+            try
+            {
+                ch.close();
+            }
+            catch (IOException e)
+            {
+                log.trace("", e);
+            }
+        }
+    }
+
+    /**
+     * Runs an emulator until killed: {@code EvlEmulator <port> [capture file]}. The password, the number of
+     * zones, broadcasts per session per second and the busy fraction come from the {@code evl.emulator.password},
+     * {@code .zones}, {@code .rate} and {@code .busy} system properties.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if(args.length < 1)
+        {
+            System.out.println("Usage: " + EvlEmulator.class.getSimpleName() + " <port> [capture file]");
+            System.out.println("       -Devl.emulator.password=<password> -Devl.emulator.zones=<count>");
+            System.out.println("       -Devl.emulator.rate=<broadcasts per session per second> -Devl.emulator.busy=<fraction>");
+            System.exit(1);
+        }
+        final Options opts = Options.defaults()
+                                    .bind(new InetSocketAddress(Integer.parseInt(args[0])))
+                                    .password(System.getProperty("evl.emulator.password", "user"))
+                                    .zones(Integer.getInteger("evl.emulator.zones", 64))
+                                    .rate(Double.parseDouble(System.getProperty("evl.emulator.rate", "1")))
+                                    .busy(Double.parseDouble(System.getProperty("evl.emulator.busy", "0")));
+        if(args.length > 1)
+            try(Stream<Packet> pkts = PanelReplay.readCapture(Paths.get(args[1])))
+            {
+                opts.capture(pkts.collect(Collectors.toList()));
+            }
+        try(EvlEmulator emulator = new EvlEmulator(opts))
+        {
+            for(;;)
+            {
+                Thread.sleep(10000);
+                log.info("{} sessions, {} packets received, {} sent, {} dropped", emulator.sessions(),
+                            emulator.received(), emulator.sent(), emulator.dropped());
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the threads the library runs on: the reader of a blocking connection, the sender of a connection
+ * and the updater of a panel. The {@link #platform()} ones are daemon threads, with the panel updaters on
+ * {@link PanelShards#shared() shared shards}. On Java 21 and later {@link #virtual()} runs all of them on
+ * virtual threads instead, so each connection can keep its simple blocking code at little cost per
+ * connection. The default is chosen by the {@code evl.virtualThreads} system property.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public abstract class EvlExecutors
+{
+    private static final Logger log = LoggerFactory.getLogger(EvlExecutors.class);
+
+    private static final EvlExecutors platform = new EvlExecutors()
+    {
+        @Override
+        public Thread newThread(String name, Runnable task)
+        {
+            final Thread th = new Thread(task, name);
+            th.setDaemon(true);
+            return th;
+        }
+
+        @Override
+        public ExecutorService newSingleThreadExecutor(String prefix)
+        {
+            // not wrapped, so that its queue can be measured
+            return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                                            EvlConnectionManager.daemonThreads(prefix));
+        }
+
+        @Override
+        public Executor panelUpdater(int id)
+        {
+            return PanelShards.shared().forPanel(id);
+        }
+    };
+
+    private static volatile EvlExecutors current = Boolean.getBoolean("evl.virtualThreads") ? virtualOrPlatform()
+                                                                                           : platform;
+
+    /**
+     * @return an unstarted thread
+     */
+    public abstract Thread newThread(String name, Runnable task);
+
+    /**
+     * @return an executor running one task at a time in order, for its owner to shut down
+     */
+    public abstract ExecutorService newSingleThreadExecutor(String prefix);
+
+    /**
+     * @return the updater of a new panel, see {@link DscPanel#DscPanel(java.util.function.Consumer, Executor)}
+     */
+    public abstract Executor panelUpdater(int id);
+
+    public static EvlExecutors platform()
+    {
+        return platform;
+    }
+
+    /**
+     * @throws UnsupportedOperationException before Java 21
+     */
+    public static EvlExecutors virtual()
+    {
+        return VirtualThreads.executors()
+                             .orElseThrow(() -> new UnsupportedOperationException("Virtual threads need Java 21"));
+    }
+
+    private static EvlExecutors virtualOrPlatform()
+    {
+        if(VirtualThreads.executors().isPresent()) return VirtualThreads.executors().get();
+        log.warn("Virtual threads need Java 21, using platform threads");
+        return platform;
+    }
+
+    /**
+     * @return the executors used by connections and panels created from now on
+     */
+    public static EvlExecutors current()
+    {
+        return current;
+    }
+
+    public static void setCurrent(EvlExecutors executors)
+    {
+        current = executors;
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The metrics sources of an application, e.g. its connections and panels, each under a name that is added to
+ * its metrics as the {@code source} label. Collecting visits every source in name order.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class EvlMetrics
+{
+    private final Map<String, MetricsSource> sources = new ConcurrentSkipListMap<>();
+
+    public EvlMetrics register(String name, MetricsSource source)
+    {
+        if(sources.putIfAbsent(name, source) != null) throw new IllegalArgumentException("Duplicate source " + name);
+        return this;
+    }
+
+    public void unregister(String name)
+    {
+        sources.remove(name);
+    }
+
+    public void collect(MetricsVisitor visitor)
+    {
+        for(Map.Entry<String, MetricsSource> e : sources.entrySet())
+        {
+            final String source = e.getKey();
+            e.getValue().collect(new MetricsVisitor()
+            {
+                @Override
+                public void counter(String name, String help, long value, String... labels)
+                {
+                    visitor.counter(name, help, value, label(source, labels));
+                }
+
+                @Override
+                public void gauge(String name, String help, double value, String... labels)
+                {
+                    visitor.gauge(name, help, value, label(source, labels));
+                }
+
+                @Override
+                public void histogram(String name, String help, double[] bounds, long[] counts, double sum,
+                        String... labels)
+                {
+                    visitor.histogram(name, help, bounds, counts, sum, label(source, labels));
+                }
+            });
+        }
+    }
+
+    private static String[] label(String source, String[] labels)
+    {
+        final String[] all = new String[labels.length + 2];
+        all[0] = "source";
+        all[1] = source;
+        System.arraycopy(labels, 0, all, 2, labels.length);
+        return all;
+    }
+
+    /**
+     * Visits one counter per command code that counted anything, labelled with the code.
+     */
+    static void perCode(MetricsVisitor visitor, String name, String help, AtomicLongArray counts)
+    {
+        for(int code = 0; code < counts.length(); code++)
+        {
+            final long n = counts.get(code);
+            if(n != 0) visitor.counter(name, help, n, "code", String.format("%03d", code));
+        }
+    }
+
+    /**
+     * @return the number of tasks waiting to run on the executor, or -1 if that cannot be told
+     */
+    static int queueDepth(Executor executor)
+    {
+        if(executor instanceof ThreadPoolExecutor) return ((ThreadPoolExecutor)executor).getQueue().size();
+        if(executor instanceof SerialExecutor) return ((SerialExecutor)executor).pending();
+        return -1;
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+/**
+ * Java Flight Recorder events for the packet path. Before Java 21 nothing is recorded; the multi release jar
+ * carries a Java 21 version of this class that records them. Each {@code start} method returns the event to
+ * be finished later, or null if it is not being recorded, which the finishing methods ignore.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class FlightEvents
+{
+    static Object startReceive()
+    {
+        return null;
+    }
+
+    static void received(Object event, int cmdCode)
+    {
+    }
+
+    static Object startProcess()
+    {
+        return null;
+    }
+
+    static void processed(Object event, int cmdCode, String handledBy)
+    {
+    }
+
+    /**
+     * Started when the command is written, finished when it is acknowledged, rejected or times out.
+     */
+    static Object startAckWait()
+    {
+        return null;
+    }
+
+    static void ackWaited(Object event, int cmdCode, String outcome)
+    {
+    }
+
+    static Object startApply()
+    {
+        return null;
+    }
+
+    static void applied(Object event, int panel, int cmdCode, boolean changed)
+    {
+    }
+
+    static Object startNotify()
+    {
+        return null;
+    }
+
+    static void notified(Object event, int panel, int cmdCode, Notification n)
+    {
+    }
+}
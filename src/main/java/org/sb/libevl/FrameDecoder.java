@@ -0,0 +1,152 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Splits the TPI byte stream into CRLF terminated frames and decodes them in place from a direct buffer.
+ * Frame boundaries are found on bytes and the checksum is validated without materializing the line.
+ * A frame longer than the buffer is skipped up to its terminator. A decoder is meant to be owned by a single
+ * reading thread.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class FrameDecoder
+{
+    public interface FrameHandler
+    {
+        void onPacket(MutablePacket pkt);
+
+        void onError(InvalidObjectException ex);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(FrameDecoder.class);
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private final ByteBuffer buf;
+
+    private final MutablePacket pkt = new MutablePacket();
+
+    /** start of the first unconsumed frame */
+    private int start;
+
+    /** bytes in [start, scanned) are known not to contain a terminator */
+    private int scanned;
+
+    /** true while dropping the rest of a frame larger than the buffer */
+    private boolean skipping;
+
+    public FrameDecoder()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FrameDecoder(int capacity)
+    {
+        buf = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Reads whatever is available from the channel into the frame buffer.
+     * @return the number of bytes read, or -1 at end of stream
+     */
+    public int read(ReadableByteChannel ch) throws IOException
+    {
+        makeRoom();
+        return ch.read(buf);
+    }
+
+    /**
+     * @return the buffer to read into, with room for at least one byte, for callers that do their own reads
+     */
+    public ByteBuffer buffer()
+    {
+        makeRoom();
+        return buf;
+    }
+
+    private void makeRoom()
+    {
+        if(buf.hasRemaining()) return;
+        if(start == 0)
+        {   // a single frame larger than the buffer, nothing sensible can be done with it
+            if(!skipping) log.warn("Skipping a frame longer than {} bytes", buf.capacity());
+            skipping = true;
+            clear();
+            return;
+        }
+        ((Buffer)buf).limit(buf.position());
+        ((Buffer)buf).position(start);
+        buf.compact();
+        scanned -= start;
+        start = 0;
+    }
+
+    private void clear()
+    {
+        ((Buffer)buf).clear();
+        start = scanned = 0;
+    }
+
+    /**
+     * Decodes the next complete frame in the buffer.
+     * @return the decoded packet, which is reused by the next call, or null if no complete frame is buffered
+     */
+    public MutablePacket next() throws InvalidObjectException
+    {
+        final int end = buf.position();
+        while(scanned < end)
+        {
+            if(buf.get(scanned++) != '\n') continue;
+            if(skipping)
+            {
+                skipping = false;
+                start = scanned;
+                continue;
+            }
+            final int from = start;
+            int len = scanned - 1 - from;
+            if(len > 0 && buf.get(from + len - 1) == '\r') len--;
+            start = scanned;
+            if(len == 0) continue;
+            return PacketCodec.decode(buf, from, len, pkt);
+        }
+        if(start == end) clear();
+        return null;
+    }
+
+    /**
+     * Decodes every complete frame currently buffered, handing each to the handler. A frame that fails to
+     * decode is reported and skipped without affecting the frames that follow it.
+     * @return the number of packets handed to the handler
+     */
+    public int drain(FrameHandler handler)
+    {
+        int count = 0;
+        for(;;)
+        {
+            try
+            {
+                final MutablePacket mp = next();
+                if(mp == null) return count;
+                handler.onPacket(mp);
+                count++;
+            }
+            catch(InvalidObjectException ex)
+            {
+                handler.onError(ex);
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.sb.libevl;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -16,9 +18,26 @@ public class JsonHelper
         return Arrays.stream(pairs).collect(Collectors.joining(",\n", "{\n", "}\n"));
     }
     
-    private static String quote(String str)
+    /**
+     * @return a name with a value that is already json, e.g. an object or an array
+     */
+    public static String member(String name, String json)
     {
-        return "\"" + str.replace("\"", "\\\"") + "\"";
+        return quote(name) + " : " + json;
+    }
+    
+    public static String quote(String str)
+    {
+        final StringBuilder sb = new StringBuilder(str.length() + 2);
+        try
+        {
+            JsonWriter.quote(str, sb);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
     }
     
     public static String array(Object... objs)
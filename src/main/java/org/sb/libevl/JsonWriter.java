@@ -0,0 +1,257 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes json straight to an {@link Appendable} (a {@link java.io.Writer}, a {@link StringBuilder}) or a
+ * {@link ByteBuffer} without building intermediate strings. The layout is the same as {@link JsonHelper}'s:
+ * every value is a quoted string, object members are separated by ",\n" and array elements by ", ".
+ *
+ * <pre>
+ * w.beginObject().member("id", 1).name("zones").beginArray().value("a").endArray().endObject();
+ * </pre>
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class JsonWriter
+{
+    /**
+     * Something that can write itself as a json value.
+     */
+    public interface Writable
+    {
+        void writeJson(JsonWriter w) throws IOException;
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Appendable out;
+
+    /** per nesting level, whether the next element is the first, index 0 is the top level */
+    private boolean[] first = new boolean[8];
+    private boolean[] array = new boolean[8];
+    private int depth;
+
+    /** true right after a member name, the value needs no separator */
+    private boolean named;
+
+    public JsonWriter(Appendable out)
+    {
+        this.out = out;
+        first[0] = true;
+    }
+
+    /**
+     * Writes utf-8 into the buffer, which throws {@link BufferOverflowException} once it is full.
+     */
+    public JsonWriter(ByteBuffer out)
+    {
+        this(new Utf8Sink(out));
+    }
+
+    /**
+     * @return the json of the value as a string
+     */
+    public static String toJson(Writable val)
+    {
+        final StringBuilder sb = new StringBuilder(256);
+        try
+        {
+            val.writeJson(new JsonWriter(sb));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return sb.toString();
+    }
+
+    private void separate() throws IOException
+    {
+        if(named) named = false;
+        else if(first[depth]) first[depth] = false;
+        else out.append(array[depth] ? ", " : ",\n");
+    }
+
+    private JsonWriter begin(boolean isArray, String open) throws IOException
+    {
+        separate();
+        out.append(open);
+        if(++depth == first.length)
+        {
+            first = Arrays.copyOf(first, depth * 2);
+            array = Arrays.copyOf(array, depth * 2);
+        }
+        first[depth] = true;
+        array[depth] = isArray;
+        return this;
+    }
+
+    private JsonWriter end(boolean isArray, String close) throws IOException
+    {
+        if(depth == 0 || array[depth] != isArray || named)
+            throw new IllegalStateException("Unbalanced json, cannot write '" + close.trim() + "'");
+        depth--;
+        out.append(close);
+        return this;
+    }
+
+    public JsonWriter beginObject() throws IOException
+    {
+        return begin(false, "{\n");
+    }
+
+    public JsonWriter endObject() throws IOException
+    {
+        return end(false, "}\n");
+    }
+
+    public JsonWriter beginArray() throws IOException
+    {
+        return begin(true, "[ ");
+    }
+
+    public JsonWriter endArray() throws IOException
+    {
+        return end(true, " ]");
+    }
+
+    public JsonWriter name(String name) throws IOException
+    {
+        if(depth == 0 || array[depth] || named) throw new IllegalStateException("Member " + name + " outside an object");
+        separate();
+        quote(name, out);
+        out.append(" : ");
+        named = true;
+        return this;
+    }
+
+    /**
+     * Writes the value as a quoted string, like {@link JsonHelper#json(String, Object)} does.
+     */
+    public JsonWriter value(Object val) throws IOException
+    {
+        separate();
+        quote(String.valueOf(val), out);
+        return this;
+    }
+
+    public JsonWriter value(Writable val) throws IOException
+    {
+        val.writeJson(this);
+        return this;
+    }
+
+    /**
+     * Writes json that was rendered elsewhere, e.g. a cached fragment, as a value.
+     */
+    public JsonWriter raw(CharSequence json) throws IOException
+    {
+        separate();
+        out.append(json);
+        return this;
+    }
+
+    public JsonWriter member(String name, Object val) throws IOException
+    {
+        return name(name).value(val);
+    }
+
+    /**
+     * Writes the string with quotes around it, escaping quotes, backslashes and control characters.
+     */
+    public static void quote(CharSequence str, Appendable out) throws IOException
+    {
+        out.append('"');
+        int from = 0;
+        final int len = str.length();
+        for(int i = 0; i < len; i++)
+        {
+            final char c = str.charAt(i);
+            if(c >= 0x20 && c != '"' && c != '\\') continue;
+            out.append(str, from, i);
+            from = i + 1;
+            switch(c)
+            {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                case '\b': out.append("\\b"); break;
+                case '\f': out.append("\\f"); break;
+                default: out.append("\\u00").append(HEX[c >>> 4]).append(HEX[c & 0xF]);
+            }
+        }
+        out.append(str, from, len);
+        out.append('"');
+    }
+
+    /**
+     * Encodes chars as utf-8 straight into a buffer.
+     */
+    private static class Utf8Sink implements Appendable
+    {
+        private final ByteBuffer buf;
+        private char high;
+
+        Utf8Sink(ByteBuffer buf)
+        {
+            this.buf = buf;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq)
+        {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end)
+        {
+            for(int i = start; i < end; i++) append(csq.charAt(i));
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c)
+        {
+            if(high != 0 && !Character.isLowSurrogate(c))
+            {
+                high = 0;
+                buf.put((byte)'?');
+            }
+            if(c < 0x80) buf.put((byte)c);
+            else if(c < 0x800)
+            {
+                buf.put((byte)(0xC0 | c >>> 6));
+                buf.put((byte)(0x80 | c & 0x3F));
+            }
+            else if(Character.isHighSurrogate(c)) high = c;
+            else if(Character.isLowSurrogate(c) && high != 0)
+            {
+                final int cp = Character.toCodePoint(high, c);
+                high = 0;
+                buf.put((byte)(0xF0 | cp >>> 18));
+                buf.put((byte)(0x80 | cp >>> 12 & 0x3F));
+                buf.put((byte)(0x80 | cp >>> 6 & 0x3F));
+                buf.put((byte)(0x80 | cp & 0x3F));
+            }
+            else
+            {
+                buf.put((byte)(0xE0 | c >>> 12));
+                buf.put((byte)(0x80 | c >>> 6 & 0x3F));
+                buf.put((byte)(0x80 | c & 0x3F));
+            }
+            return this;
+        }
+    }
+}
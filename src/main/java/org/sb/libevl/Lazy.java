@@ -14,7 +14,8 @@ public class Lazy<T> implements Supplier<T>, Serializable
 {
     private static final long serialVersionUID = -383503376354386631L;
     private T val;
-    private transient Supplier<? extends T> sup;
+    /** volatile, and cleared after val is set, so a reader that sees it null also sees val */
+    private transient volatile Supplier<? extends T> sup;
     
     public static <T> Lazy<T> wrap(Supplier<? extends T> sup)
     {
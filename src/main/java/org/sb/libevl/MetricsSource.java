@@ -0,0 +1,15 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+/**
+ * Something that keeps metrics, see {@link EvlMetrics}.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public interface MetricsSource
+{
+    void collect(MetricsVisitor visitor);
+}
@@ -0,0 +1,25 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+/**
+ * Receives the metrics of {@link MetricsSource}s when they are collected, e.g. to render or export them. The
+ * sources keep their metrics as primitives updated without allocating; only collecting allocates.
+ * Labels are given as name, value pairs.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public interface MetricsVisitor
+{
+    void counter(String name, String help, long value, String... labels);
+
+    void gauge(String name, String help, double value, String... labels);
+
+    /**
+     * @param bounds the upper bounds of the buckets, the last one being infinity
+     * @param counts the cumulative count of each bucket, the last one being the total count
+     */
+    void histogram(String name, String help, double[] bounds, long[] counts, double sum, String... labels);
+}
@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable, mutable view of a TPI packet. {@link PacketCodec} decodes into an instance of this class
+ * so that a reader can inspect command codes and data without allocating per packet.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class MutablePacket
+{
+    private int cmdCode;
+    private byte[] data;
+    private int length;
+
+    public MutablePacket()
+    {
+        this(32);
+    }
+
+    public MutablePacket(int capacity)
+    {
+        data = new byte[capacity];
+    }
+
+    public int getCmdCode()
+    {
+        return cmdCode;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public char charAt(int idx)
+    {
+        if(idx >= length) throw new IndexOutOfBoundsException("index=" + idx + ", length=" + length);
+        return (char)(data[idx] & 0xFF);
+    }
+
+    /**
+     * Parses the decimal digits in the range [from, to) of the data, equivalent to
+     * {@code Integer.parseInt(getData().substring(from, to))} without the intermediate strings.
+     */
+    public int parseInt(int from, int to)
+    {
+        if(from < 0 || to > length || from >= to)
+            throw new NumberFormatException("Invalid range [" + from + ", " + to + ") for length " + length);
+        int val = 0;
+        for(int i = from; i < to; i++)
+        {
+            int d = data[i] - '0';
+            if(d < 0 || d > 9) throw new NumberFormatException("Not a digit '" + (char)(data[i] & 0xFF) + "' at " + i);
+            val = val * 10 + d;
+        }
+        return val;
+    }
+
+    public String getData()
+    {
+        return length == 0 ? "" : new String(data, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    public Packet toPacket()
+    {
+        return new Packet(cmdCode, getData());
+    }
+
+    public MutablePacket set(Packet pkt)
+    {
+        final String str = pkt.getData();
+        cmdCode = pkt.getCmdCode();
+        length = 0;
+        ensureCapacity(str.length());
+        for(int i = 0; i < str.length(); i++) data[i] = (byte)str.charAt(i);
+        length = str.length();
+        return this;
+    }
+
+    void set(int cmdCode, byte[] src, int off, int len)
+    {
+        this.cmdCode = cmdCode;
+        ensureCapacity(len);
+        System.arraycopy(src, off, data, 0, len);
+        length = len;
+    }
+
+    byte[] buffer(int cmdCode, int len)
+    {
+        this.cmdCode = cmdCode;
+        ensureCapacity(len);
+        length = len;
+        return data;
+    }
+
+    byte[] array()
+    {
+        return data;
+    }
+
+    private void ensureCapacity(int len)
+    {
+        if(data.length < len) data = Arrays.copyOf(data, Math.max(len, data.length * 2));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MutablePacket [cmdCode=" + cmdCode + ", data=" + getData() + "]";
+    }
+}
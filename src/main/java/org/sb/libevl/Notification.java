@@ -3,15 +3,17 @@
  */
 package org.sb.libevl;
 
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author sam
  *
  */
  
-public class Notification
+public class Notification implements JsonWriter.Writable
 {
     public enum Type {
 
@@ -23,25 +25,104 @@ public class Notification
 	    MISC
     };
     
+    /** the entity of notifications that are not about a zone or partition */
+    public static final int NONE = -1;
+    
     public final Type type;
     public final Date ts;
     public final String msg;
     
+    /** the command code of the packet that caused this, 0 if none */
+    public final int code;
+    
+    /** the zone, for {@link Type#ZONE}, or partition this is about, NONE if it is about neither */
+    public final int entity;
+    
+    /** the state before and after the change, if it is a change of one state, null otherwise */
+    public final Enum<?> oldState, newState;
+    
+    /** true if this carries the latest state of its entity and replaces earlier ones, see {@link #key()} */
+    public final boolean coalescable;
+    
+    private static final AtomicInteger stateKinds = new AtomicInteger();
+    
+    /** a small number per state enum, so that e.g. a zone's state and its fault have different keys */
+    private static final ClassValue<Integer> stateKind = new ClassValue<Integer>()
+    {
+        @Override
+        protected Integer computeValue(Class<?> type)
+        {
+            return stateKinds.incrementAndGet();
+        }
+    };
+    
     public Notification(Type type, Date ts, String msg)
+    {
+        this(type, ts, msg, NONE, false);
+    }
+    
+    public Notification(Type type, Date ts, String msg, int entity, boolean coalescable)
+    {
+        this(type, ts, msg, 0, entity, null, null, coalescable);
+    }
+    
+    public Notification(Type type, Date ts, String msg, int code, int entity, Enum<?> oldState, Enum<?> newState,
+                        boolean coalescable)
     {
         this.type = type;
         this.ts = ts;
         this.msg = msg;
+        this.code = code;
+        this.entity = entity;
+        this.oldState = oldState;
+        this.newState = newState;
+        this.coalescable = coalescable;
+    }
+    
+    /**
+     * @return true if this is about a zone, false if about a partition or neither
+     */
+    public boolean isZone()
+    {
+        return type == Type.ZONE && entity != NONE;
+    }
+    
+    /**
+     * @return true if this is about a partition
+     */
+    public boolean isPartition()
+    {
+        return type != Type.ZONE && entity != NONE;
+    }
+    
+    /**
+     * @return the same for notifications about the same thing, e.g. a zone's open state or the keypad LEDs
+     */
+    public long key()
+    {
+        final long kind = newState == null ? 0 : stateKind.get(newState.getDeclaringClass());
+        return (long)type.ordinal() << 48 | kind << 32 | (entity & 0xFFFFFFFFL);
     }
     
     public String toJson()
     {
-        return JsonHelper.obj(
-	    	JsonHelper.json("type", type.name()),
-	    	JsonHelper.json("ts", date()),
-	    	JsonHelper.json("msg", msg));        
+        return JsonWriter.toJson(this);
     } 
     
+    @Override
+    public void writeJson(JsonWriter w) throws IOException
+    {
+        w.beginObject()
+            .member("type", type.name())
+            .member("ts", date())
+            .member("msg", msg);
+        if(code != 0) w.member("code", code);
+        if(entity != NONE) w.member(isZone() ? "zone" : "partition", entity);
+        if(oldState != null) w.member("from", oldState);
+        if(newState != null) w.member("to", newState);
+        w.endObject();
+    }
+    
     public String date()
     {
     	return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(ts);
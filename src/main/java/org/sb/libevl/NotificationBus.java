@@ -0,0 +1,475 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers a panel's notifications to any number of subscribers. Each subscriber has its own bounded queue,
+ * drained on a shared executor, so a slow subscriber neither delays the others nor grows the heap; what
+ * happens when its queue is full is up to its {@link Overflow} policy.
+ * <p>
+ * Subscribers may only want some notifications, see {@link Filter}. Filters are not run for every
+ * notification; instead the bus keeps an index from each type, zone, partition and new state to the set of
+ * subscribers interested in it, and a notification goes to the intersection of the sets for its fields.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class NotificationBus
+{
+    private static final Logger log = LoggerFactory.getLogger(NotificationBus.class);
+
+    public enum Overflow
+    {
+        /** drop the oldest queued notification */
+        DROP_OLDEST,
+        /**
+         * make the publisher, i.e. the panel's updater, wait for room; only for a panel with an updater of its
+         * own, a shared one would hold up every panel on it
+         */
+        BLOCK,
+        /**
+         * replace the queued notification about the same thing, e.g. a zone, by the latest one, and drop
+         * the oldest if there is still no room
+         */
+        COALESCE
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** notifications a subscriber is given before it lets others use the thread */
+    private static final int BATCH = 256;
+
+    private static final ExecutorService deliverers =
+            Executors.newCachedThreadPool(EvlConnectionManager.daemonThreads("evl-notify-"));
+
+    /**
+     * Which notifications a subscriber wants. Every criterion that is set must match; criteria not set match
+     * anything. A zone filter only matches notifications about zones, a partition filter only those about
+     * partitions.
+     */
+    public static class Filter
+    {
+        private EnumSet<Notification.Type> types;
+        private BitSet zones;
+        private BitSet partitions;
+        private Set<Enum<?>> from;
+        private Set<Enum<?>> to;
+
+        public static Filter all()
+        {
+            return new Filter();
+        }
+
+        public Filter types(Notification.Type first, Notification.Type... rest)
+        {
+            types = EnumSet.of(first, rest);
+            return this;
+        }
+
+        public Filter zones(int... zids)
+        {
+            zones = bits(zids);
+            return this;
+        }
+
+        public Filter partitions(int... pids)
+        {
+            partitions = bits(pids);
+            return this;
+        }
+
+        /**
+         * Only changes from one of these states.
+         */
+        public Filter from(Enum<?>... states)
+        {
+            from = new HashSet<>(Arrays.asList(states));
+            return this;
+        }
+
+        /**
+         * Only changes to one of these states.
+         */
+        public Filter to(Enum<?>... states)
+        {
+            to = new HashSet<>(Arrays.asList(states));
+            return this;
+        }
+
+        private static BitSet bits(int[] ids)
+        {
+            final BitSet bits = new BitSet();
+            for(int id : ids)
+            {
+                if(id < 0 || id >= CommandTable.SIZE) throw new IllegalArgumentException("Invalid id " + id);
+                bits.set(id);
+            }
+            return bits;
+        }
+    }
+
+    /**
+     * Subscribers by what they are interested in, as sets of subscriber slots, one bit per slot in words of
+     * 64. Rebuilt on every subscribe and unsubscribe, never changed once published.
+     */
+    private static class Index
+    {
+        static final Index EMPTY = new Index(new Subscription[0]);
+
+        final Subscription[] subs;
+        final int words;
+        final long[][] byType = new long[Notification.Type.values().length][];
+        final long[] anyZone, anyPartition, anyState;
+        final long[][] byZone = new long[CommandTable.SIZE][], byPartition = new long[CommandTable.SIZE][];
+        final Map<Enum<?>, long[]> byState = new HashMap<>();
+
+        Index(Subscription[] subs)
+        {
+            this.subs = subs;
+            words = (subs.length + 63) >>> 6;
+            anyZone = new long[words];
+            anyPartition = new long[words];
+            anyState = new long[words];
+            for(int t = 0; t < byType.length; t++) byType[t] = new long[words];
+            for(int i = 0; i < subs.length; i++)
+            {
+                final Filter f = subs[i].filter;
+                for(Notification.Type type : Notification.Type.values())
+                    if(f.types == null || f.types.contains(type)) set(byType[type.ordinal()], i);
+                index(i, f.zones, anyZone, byZone);
+                index(i, f.partitions, anyPartition, byPartition);
+                if(f.to == null) set(anyState, i);
+                else for(Enum<?> state : f.to) set(byState.computeIfAbsent(state, k -> new long[words]), i);
+            }
+        }
+
+        private static void set(long[] slots, int slot)
+        {
+            slots[slot >>> 6] |= 1L << slot;
+        }
+
+        private void index(int slot, BitSet ids, long[] any, long[][] byId)
+        {
+            if(ids == null) set(any, slot);
+            else for(int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1))
+            {
+                if(byId[id] == null) byId[id] = new long[words];
+                set(byId[id], slot);
+            }
+        }
+
+        private static long[] get(long[][] byId, int id)
+        {
+            return id >= 0 && id < byId.length ? byId[id] : null;
+        }
+
+        /**
+         * Offers the notification to the subscribers it is for, i.e. the slots in its type's set and, for
+         * each of zone, partition and new state, in either the set of those that do not care or the set for
+         * its value. Works a word at a time so that publishing allocates nothing.
+         */
+        void publish(Notification n)
+        {
+            final long[] type = byType[n.type.ordinal()];
+            final long[] zone = n.isZone() ? get(byZone, n.entity) : null;
+            final long[] partition = n.isPartition() ? get(byPartition, n.entity) : null;
+            final long[] state = n.newState != null ? byState.get(n.newState) : null;
+            for(int w = 0; w < words; w++)
+            {
+                long m = type[w] & (anyZone[w] | (zone != null ? zone[w] : 0))
+                                 & (anyPartition[w] | (partition != null ? partition[w] : 0))
+                                 & (anyState[w] | (state != null ? state[w] : 0));
+                for(; m != 0; m &= m - 1)
+                {
+                    final Subscription s = subs[w << 6 | Long.numberOfTrailingZeros(m)];
+                    if(s.filter.from == null || s.filter.from.contains(n.oldState)) s.offer(n);
+                }
+            }
+        }
+    }
+
+    public class Subscription implements AutoCloseable
+    {
+        private final Filter filter;
+        private final Consumer<Notification> consumer;
+        private final Overflow overflow;
+        private final Queue<Notification> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+
+        Subscription(Filter filter, Consumer<Notification> consumer, int capacity, Overflow overflow)
+        {
+            this.filter = filter;
+            this.consumer = consumer;
+            this.overflow = overflow;
+            switch(overflow)
+            {
+                case DROP_OLDEST: queue = new EvictingQueue<>(capacity, n -> dropped.incrementAndGet()); break;
+                case BLOCK: queue = new ArrayBlockingQueue<>(capacity); break;
+                default: queue = new CoalescingQueue(capacity, dropped);
+            }
+        }
+
+        void offer(Notification n)
+        {
+            if(overflow == Overflow.BLOCK)
+            {
+                try
+                {
+                    ((ArrayBlockingQueue<Notification>)queue).put(n);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    dropped.incrementAndGet();
+                    return;
+                }
+            }
+            else queue.offer(n);
+            if(scheduled.compareAndSet(false, true)) executor.execute(this::drain);
+        }
+
+        private void drain()
+        {
+            try
+            {
+                Notification n;
+                for(int i = 0; i < BATCH && (n = queue.poll()) != null; i++)
+                {
+                    try
+                    {
+                        consumer.accept(n);
+                    }
+                    catch(Exception e)
+                    {
+                        log.error("Subscriber failed on " + n.toJson(), e);
+                    }
+                }
+            }
+            finally
+            {
+                // even after an Error, so that the subscription is drained again
+                scheduled.set(false);
+                if(!queue.isEmpty() && scheduled.compareAndSet(false, true)) executor.execute(this::drain);
+            }
+        }
+
+        /**
+         * @return the number of notifications dropped because the queue was full
+         */
+        public long dropped()
+        {
+            return dropped.get();
+        }
+
+        /**
+         * @return the number of notifications replaced by a later one about the same thing
+         */
+        public long coalesced()
+        {
+            return queue instanceof CoalescingQueue ? ((CoalescingQueue)queue).coalesced : 0;
+        }
+
+        /**
+         * @return the number of notifications waiting to be delivered
+         */
+        public int pending()
+        {
+            return queue.size();
+        }
+
+        @Override
+        public void close()
+        {
+            unsubscribe(this);
+            queue.clear();
+        }
+    }
+
+    /**
+     * A bounded queue that keeps at most one notification per key among those that are coalescable, in the
+     * position of the first one.
+     */
+    private static class CoalescingQueue extends AbstractQueue<Notification>
+    {
+        private static class Slot
+        {
+            Notification n;
+
+            Slot(Notification n)
+            {
+                this.n = n;
+            }
+        }
+
+        private final int capacity;
+        private final AtomicLong dropped;
+        private final ArrayDeque<Slot> slots;
+        private final Map<Long, Slot> byKey = new HashMap<>();
+        volatile long coalesced;
+
+        CoalescingQueue(int capacity, AtomicLong dropped)
+        {
+            this.capacity = capacity;
+            this.dropped = dropped;
+            this.slots = new ArrayDeque<>(Math.min(capacity, 64));
+        }
+
+        @Override
+        public synchronized boolean offer(Notification n)
+        {
+            if(n.coalescable)
+            {
+                final Slot s = byKey.get(n.key());
+                if(s != null)
+                {
+                    s.n = n;
+                    coalesced++;
+                    return true;
+                }
+            }
+            if(slots.size() == capacity)
+            {
+                unlink(slots.poll());
+                dropped.incrementAndGet();
+            }
+            final Slot s = new Slot(n);
+            slots.add(s);
+            if(n.coalescable) byKey.put(n.key(), s);
+            return true;
+        }
+
+        private void unlink(Slot s)
+        {
+            if(s.n.coalescable && byKey.get(s.n.key()) == s) byKey.remove(s.n.key());
+        }
+
+        @Override
+        public synchronized Notification poll()
+        {
+            final Slot s = slots.poll();
+            if(s == null) return null;
+            unlink(s);
+            return s.n;
+        }
+
+        @Override
+        public synchronized Notification peek()
+        {
+            final Slot s = slots.peek();
+            return s == null ? null : s.n;
+        }
+
+        @Override
+        public synchronized int size()
+        {
+            return slots.size();
+        }
+
+        @Override
+        public synchronized void clear()
+        {
+            slots.clear();
+            byKey.clear();
+        }
+
+        @Override
+        public synchronized Iterator<Notification> iterator()
+        {
+            final List<Notification> copy = new ArrayList<>(slots.size());
+            for(Slot s : slots) copy.add(s.n);
+            return copy.iterator();
+        }
+    }
+
+    private final Executor executor;
+
+    private volatile Index index = Index.EMPTY;
+
+    public NotificationBus()
+    {
+        this(deliverers);
+    }
+
+    /**
+     * @param executor delivers the notifications, one task at a time per subscriber
+     */
+    public NotificationBus(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribes with a queue of {@link #DEFAULT_CAPACITY} that coalesces.
+     */
+    public Subscription subscribe(Consumer<Notification> consumer)
+    {
+        return subscribe(consumer, DEFAULT_CAPACITY, Overflow.COALESCE);
+    }
+
+    public Subscription subscribe(Consumer<Notification> consumer, int capacity, Overflow overflow)
+    {
+        return subscribe(Filter.all(), consumer, capacity, overflow);
+    }
+
+    /**
+     * Subscribes to the notifications that pass the filter, which must not be changed afterwards.
+     */
+    public Subscription subscribe(Filter filter, Consumer<Notification> consumer, int capacity, Overflow overflow)
+    {
+        if(capacity < 1) throw new IllegalArgumentException("Invalid capacity " + capacity);
+        final Subscription s = new Subscription(filter, consumer, capacity, overflow);
+        synchronized(this)
+        {
+            final Subscription[] subs = Arrays.copyOf(index.subs, index.subs.length + 1);
+            subs[subs.length - 1] = s;
+            index = new Index(subs);
+        }
+        return s;
+    }
+
+    private synchronized void unsubscribe(Subscription s)
+    {
+        final List<Subscription> subs = new ArrayList<>(Arrays.asList(index.subs));
+        if(subs.remove(s)) index = new Index(subs.toArray(new Subscription[subs.size()]));
+    }
+
+    /**
+     * @return true if publishing would reach anybody, lets publishers skip building notifications
+     */
+    public boolean hasSubscribers()
+    {
+        return index.subs.length != 0;
+    }
+
+    public void publish(Notification n)
+    {
+        index.publish(n);
+        StageProbe.enqueued(n);
+    }
+}
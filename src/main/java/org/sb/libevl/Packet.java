@@ -4,8 +4,6 @@
 package org.sb.libevl;
 
 import java.io.InvalidObjectException;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * @author sameetb
@@ -28,35 +26,14 @@ public class Packet
         this.data = data;
     }
 
-    private String cmdStr()
-    {
-        return String.format("%03d", cmdCode);
-    }
-    
-    private String checksum()
-    {
-        return String.format("%02X", Stream.of(cmdStr(), data)
-                                           .flatMap(str -> str.chars().mapToObj(i -> (int)i))
-                                           .collect(Collectors.summingInt(i -> i)) & 0xFF);
-    }
-
     public String serialize()
     {
-        return Stream.of(cmdStr(), data, checksum())
-                     .collect(Collectors.joining());
+        return PacketCodec.serialize(cmdCode, data);
     }
 
     public static Packet deserialize(String pkt) throws InvalidObjectException
     {
-        final int len = pkt.length();
-        String cmd = pkt.substring(0, 3);
-        String data = pkt.substring(3, len - 2);
-        String chksm = pkt.substring(len - 2);
-        final Packet packet = new Packet(Integer.parseInt(cmd), data);
-        final String checksum = packet.checksum();
-        if(!checksum.equals(chksm)) throw new InvalidObjectException("Checksum match failed, "
-                + "expected=" + checksum + ", found=" + chksm);
-        return packet;
+        return PacketCodec.deserialize(pkt);
     }
     
     @Override
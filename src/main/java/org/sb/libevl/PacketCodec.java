@@ -0,0 +1,203 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.InvalidObjectException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes TPI packets (3 digit command, data, 2 hex digit checksum) directly to and from
+ * bytes. The checksum is computed in a single pass over the characters, without boxing or formatting.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class PacketCodec
+{
+    static final int CMD_LEN = 3;
+
+    static final int CHECKSUM_LEN = 2;
+
+    static final int OVERHEAD = CMD_LEN + CHECKSUM_LEN;
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static int cmdChecksum(int cmdCode)
+    {
+        return 3 * '0' + cmdCode / 100 + cmdCode / 10 % 10 + cmdCode % 10;
+    }
+
+    private static void checkCmd(int cmdCode)
+    {
+        if(cmdCode < 0 || cmdCode > 999) throw new IllegalArgumentException("Command code out of range [0-999] " + cmdCode);
+    }
+
+    public static int checksum(int cmdCode, CharSequence data)
+    {
+        int sum = cmdChecksum(cmdCode);
+        for(int i = 0, len = data.length(); i < len; i++) sum += data.charAt(i);
+        return sum & 0xFF;
+    }
+
+    public static int checksum(byte[] buf, int off, int len)
+    {
+        int sum = 0;
+        for(int i = off, end = off + len; i < end; i++) sum += buf[i] & 0xFF;
+        return sum & 0xFF;
+    }
+
+    public static int encodedLength(Packet pkt)
+    {
+        return OVERHEAD + pkt.getData().length();
+    }
+
+    public static String serialize(int cmdCode, String data)
+    {
+        checkCmd(cmdCode);
+        final int dlen = data.length();
+        final char[] out = new char[OVERHEAD + dlen];
+        out[0] = (char)('0' + cmdCode / 100);
+        out[1] = (char)('0' + cmdCode / 10 % 10);
+        out[2] = (char)('0' + cmdCode % 10);
+        data.getChars(0, dlen, out, CMD_LEN);
+        final int chk = checksum(cmdCode, data);
+        out[CMD_LEN + dlen] = HEX[chk >> 4];
+        out[CMD_LEN + dlen + 1] = HEX[chk & 0xF];
+        return new String(out);
+    }
+
+    public static Packet deserialize(CharSequence pkt) throws InvalidObjectException
+    {
+        final int len = pkt.length();
+        if(len < OVERHEAD) throw new InvalidObjectException("Packet too short, length=" + len + ", packet=" + pkt);
+        int cmdCode = 0, sum = 0;
+        for(int i = 0; i < CMD_LEN; i++)
+        {
+            final char ch = pkt.charAt(i);
+            if(ch < '0' || ch > '9') throw new InvalidObjectException("Invalid command code in packet " + pkt);
+            cmdCode = cmdCode * 10 + (ch - '0');
+            sum += ch;
+        }
+        final int dataEnd = len - CHECKSUM_LEN;
+        for(int i = CMD_LEN; i < dataEnd; i++) sum += pkt.charAt(i);
+        checkChecksum(sum & 0xFF, hex(pkt.charAt(dataEnd)), hex(pkt.charAt(dataEnd + 1)));
+        return new Packet(cmdCode, pkt.subSequence(CMD_LEN, dataEnd).toString());
+    }
+
+    public static int encode(Packet pkt, byte[] out, int off)
+    {
+        final int cmdCode = pkt.getCmdCode();
+        checkCmd(cmdCode);
+        final String data = pkt.getData();
+        final int dlen = data.length();
+        int pos = off;
+        out[pos++] = (byte)('0' + cmdCode / 100);
+        out[pos++] = (byte)('0' + cmdCode / 10 % 10);
+        out[pos++] = (byte)('0' + cmdCode % 10);
+        int sum = cmdChecksum(cmdCode);
+        for(int i = 0; i < dlen; i++)
+        {
+            final char ch = data.charAt(i);
+            sum += ch;
+            out[pos++] = (byte)ch;
+        }
+        sum &= 0xFF;
+        out[pos++] = (byte)HEX[sum >> 4];
+        out[pos++] = (byte)HEX[sum & 0xF];
+        return pos - off;
+    }
+
+    /**
+     * Writes the packet at the buffer's current position, advancing it.
+     * @return the number of bytes written
+     * @throws BufferOverflowException if the buffer does not have enough room
+     */
+    public static int encode(Packet pkt, ByteBuffer out)
+    {
+        final int cmdCode = pkt.getCmdCode();
+        checkCmd(cmdCode);
+        final String data = pkt.getData();
+        final int dlen = data.length();
+        if(out.remaining() < OVERHEAD + dlen) throw new BufferOverflowException();
+        out.put((byte)('0' + cmdCode / 100));
+        out.put((byte)('0' + cmdCode / 10 % 10));
+        out.put((byte)('0' + cmdCode % 10));
+        int sum = cmdChecksum(cmdCode);
+        for(int i = 0; i < dlen; i++)
+        {
+            final char ch = data.charAt(i);
+            sum += ch;
+            out.put((byte)ch);
+        }
+        sum &= 0xFF;
+        out.put((byte)HEX[sum >> 4]);
+        out.put((byte)HEX[sum & 0xF]);
+        return OVERHEAD + dlen;
+    }
+
+    public static Packet decode(byte[] buf, int off, int len) throws InvalidObjectException
+    {
+        return decode(buf, off, len, new MutablePacket(Math.max(len - OVERHEAD, 0))).toPacket();
+    }
+
+    /**
+     * Decodes a single packet (without the line terminator) occupying [off, off + len) of the array into
+     * the supplied reusable packet.
+     */
+    public static MutablePacket decode(byte[] buf, int off, int len, MutablePacket into) throws InvalidObjectException
+    {
+        if(len < OVERHEAD) throw new InvalidObjectException("Packet too short, length=" + len);
+        final int cmdCode = cmdCode(buf[off], buf[off + 1], buf[off + 2]);
+        final int dlen = len - OVERHEAD;
+        final int sum = cmdChecksum(cmdCode) + checksum(buf, off + CMD_LEN, dlen);
+        checkChecksum(sum & 0xFF, hex(buf[off + len - 2]), hex(buf[off + len - 1]));
+        into.set(cmdCode, buf, off + CMD_LEN, dlen);
+        return into;
+    }
+
+    /**
+     * Decodes a single packet (without the line terminator) occupying [off, off + len) of the buffer
+     * using absolute reads, so the buffer's position and limit are left untouched.
+     */
+    public static MutablePacket decode(ByteBuffer buf, int off, int len, MutablePacket into) throws InvalidObjectException
+    {
+        if(len < OVERHEAD) throw new InvalidObjectException("Packet too short, length=" + len);
+        final int cmdCode = cmdCode(buf.get(off), buf.get(off + 1), buf.get(off + 2));
+        final int dlen = len - OVERHEAD;
+        int sum = cmdChecksum(cmdCode);
+        for(int i = 0; i < dlen; i++) sum += buf.get(off + CMD_LEN + i) & 0xFF;
+        checkChecksum(sum & 0xFF, hex(buf.get(off + len - 2)), hex(buf.get(off + len - 1)));
+        // only touched once the packet is known good, like the array overload
+        final byte[] data = into.buffer(cmdCode, dlen);
+        for(int i = 0; i < dlen; i++) data[i] = buf.get(off + CMD_LEN + i);
+        return into;
+    }
+
+    private static int cmdCode(int d0, int d1, int d2) throws InvalidObjectException
+    {
+        d0 -= '0';
+        d1 -= '0';
+        d2 -= '0';
+        if((d0 | d1 | d2) < 0 || d0 > 9 || d1 > 9 || d2 > 9)
+            throw new InvalidObjectException("Invalid command code in packet");
+        return d0 * 100 + d1 * 10 + d2;
+    }
+
+    private static int hex(int ch)
+    {
+        if(ch >= '0' && ch <= '9') return ch - '0';
+        if(ch >= 'A' && ch <= 'F') return ch - 'A' + 10;
+        if(ch >= 'a' && ch <= 'f') return ch - 'a' + 10;
+        return -1;
+    }
+
+    private static void checkChecksum(int expected, int hi, int lo) throws InvalidObjectException
+    {
+        if(hi < 0 || lo < 0 || expected != (hi << 4 | lo))
+            throw new InvalidObjectException("Checksum match failed, "
+                    + "expected=" + HEX[expected >> 4] + HEX[expected & 0xF] + ", found="
+                    + (hi < 0 || lo < 0 ? "invalid" : "" + HEX[hi] + HEX[lo]));
+    }
+}
@@ -4,6 +4,7 @@
 package org.sb.libevl;
 
 import java.util.AbstractMap.SimpleEntry;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
@@ -16,45 +17,103 @@ import java.util.function.Supplier;
  */
 public class PacketFlow
 {
+    private static final int[] ANY_CODE = new int[0];
+    
     private final Supplier<Packet> pkt;
     private final Optional<Map.Entry<Predicate<Packet>, PacketFlow>> replyAction;
+    private final int[] replyCodes;
     
     public PacketFlow(Packet pkt, Predicate<Packet> pred, Supplier<Packet> respPkt)
     {
         this(() -> pkt, pred, new PacketFlow(respPkt, Optional.empty()));
     }
     
+    /**
+     * A flow whose reply action fires on the first packet with one of the given command codes.
+     */
+    public PacketFlow(Packet pkt, int[] replyCodes, Supplier<Packet> respPkt)
+    {
+        this(() -> pkt, replyCodes, codeIn(replyCodes), new PacketFlow(respPkt, Optional.empty()));
+    }
+    
     public PacketFlow(Supplier<Packet> pkt, Predicate<Packet> pred, PacketFlow replyAction)
     {
         this(pkt, Optional.of(new SimpleEntry<>(pred, replyAction)));
     }
     
+    /**
+     * @param replyCodes the only command codes that can satisfy {@code pred}, lets the connection skip the
+     * predicate for every other packet
+     */
+    public PacketFlow(Supplier<Packet> pkt, int[] replyCodes, Predicate<Packet> pred, PacketFlow replyAction)
+    {
+        this(pkt, Optional.of(new SimpleEntry<>(pred, replyAction)), replyCodes);
+    }
+    
     public PacketFlow(Supplier<Packet> pkt, Optional<Entry<Predicate<Packet>, PacketFlow>> replyAction)
     {
+        this(pkt, replyAction, ANY_CODE);
+    }
+    
+    private PacketFlow(Supplier<Packet> pkt, Optional<Entry<Predicate<Packet>, PacketFlow>> replyAction, int[] replyCodes)
+    {
+        for(int code : replyCodes)
+            if(code < 0 || code >= CommandTable.SIZE) throw new IllegalArgumentException("Invalid reply code " + code);
         this.pkt = pkt;
         this.replyAction = replyAction;
+        this.replyCodes = replyCodes.clone();
     }
     
     public PacketFlow(Packet pkt)
     {
         this(() -> pkt, Optional.empty());
     }
-
+    
+    private static Predicate<Packet> codeIn(int[] codes)
+    {
+        final int[] sorted = codes.clone();
+        Arrays.sort(sorted);
+        return pkt -> Arrays.binarySearch(sorted, pkt.getCmdCode()) >= 0;
+    }
+    
     public Packet getPkt()
     {
         return pkt.get();
     }
-
+    
     public Optional<Map.Entry<Predicate<Packet>, PacketFlow>> getReplyAction()
     {
         return replyAction;
     }
     
+    /**
+     * @return the command codes the reply action waits for, empty if it may be satisfied by any packet
+     */
+    public int[] getReplyCodes()
+    {
+        return replyCodes.clone();
+    }
+    
+    int[] replyCodes()
+    {
+        return replyCodes;
+    }
+    
     public PacketFlow append(Predicate<Packet> pred, PacketFlow replyAction)
+    {
+        return append(ANY_CODE, pred, replyAction);
+    }
+    
+    public PacketFlow append(int[] replyCodes, PacketFlow replyAction)
+    {
+        return append(replyCodes, codeIn(replyCodes), replyAction);
+    }
+    
+    private PacketFlow append(int[] replyCodes, Predicate<Packet> pred, PacketFlow replyAction)
     {
         PacketFlow curr = this;
         while(curr.getReplyAction().isPresent()) curr = curr.getReplyAction().get().getValue();
         
-        return new PacketFlow(curr.pkt, Optional.of(new SimpleEntry<>(pred, replyAction)));
+        return new PacketFlow(curr.pkt, Optional.of(new SimpleEntry<>(pred, replyAction)), replyCodes);
     }
 }
@@ -0,0 +1,426 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An append only journal of the packets received from a panel, kept in memory mapped segment files of a
+ * fixed size in one directory. Each record holds the time it was appended, the command code, the zone and
+ * partition the packet is about, if any, and the data. The header of each segment summarizes it: the time
+ * range, bit maps of the codes, zones and partitions it holds, and a sparse index from time to record
+ * offset. Queries use the summaries to skip segments, and read only the rest.
+ * <pre>
+ * header (4096 bytes): magic, version, min ts, max ts, count, end offset, partition bits, code bits,
+ *                      zone bits, index count, index entries (ts, offset)
+ * record: ts (8), code (2), zone (2), partition (1), data length (1), data
+ * </pre>
+ * Records are assumed to be appended in time order.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class PacketJournal implements Closeable
+{
+    public interface RecordConsumer
+    {
+        void accept(long ts, Packet pkt);
+    }
+
+    /**
+     * Selects records by time range and, optionally, command code, zone and partition.
+     */
+    public static class Query
+    {
+        final long from, to;
+        BitSet codes;
+        int zone = -1;
+        int partition = -1;
+
+        /**
+         * @param from inclusive, epoch millis
+         * @param to exclusive, epoch millis
+         */
+        public Query(long from, long to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        public Query codes(int... codes)
+        {
+            this.codes = new BitSet(CommandTable.SIZE);
+            for(int code : codes) this.codes.set(code);
+            return this;
+        }
+
+        public Query zone(int zone)
+        {
+            this.zone = zone;
+            return this;
+        }
+
+        public Query partition(int partition)
+        {
+            this.partition = partition;
+            return this;
+        }
+
+        boolean matches(long ts, int code, int zone, int partition)
+        {
+            return ts >= from && ts < to
+                    && (codes == null || codes.get(code))
+                    && (this.zone < 0 || this.zone == zone)
+                    && (this.partition < 0 || this.partition == partition);
+        }
+    }
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+    private static final int MAGIC = 0x45564a31, VERSION = 1;
+
+    private static final int MIN_TS = 8, MAX_TS = 16, COUNT = 24, END = 28, PARTITIONS = 32, CODES = 40,
+                             ZONES = CODES + 128, INDEX_COUNT = ZONES + 128, INDEX = INDEX_COUNT + 8,
+                             INDEX_ENTRIES = 256, INDEX_ENTRY = 12, HEADER = 4096;
+
+    private static final int RECORD = 14, MAX_DATA = 255;
+
+    private static final Pattern SEGMENT = Pattern.compile("seg-(\\d+)\\.evj");
+
+    /**
+     * The summary of a segment, kept in memory for every segment so that queries know which ones to read.
+     */
+    private static class Segment
+    {
+        final File file;
+        final int seq;
+        long minTs = Long.MAX_VALUE, maxTs = Long.MIN_VALUE;
+        int count;
+        int end = HEADER;
+        long partitions;
+        final long[] codes = new long[16];
+        final long[] zones = new long[16];
+
+        Segment(File file, int seq)
+        {
+            this.file = file;
+            this.seq = seq;
+        }
+
+        void load(ByteBuffer hdr) throws IOException
+        {
+            if(hdr.getInt(0) != MAGIC || hdr.getInt(4) != VERSION) throw new IOException("Not a journal segment " + file);
+            minTs = hdr.getLong(MIN_TS);
+            maxTs = hdr.getLong(MAX_TS);
+            count = hdr.getInt(COUNT);
+            end = hdr.getInt(END);
+            partitions = hdr.getLong(PARTITIONS);
+            for(int i = 0; i < 16; i++)
+            {
+                codes[i] = hdr.getLong(CODES + i * 8);
+                zones[i] = hdr.getLong(ZONES + i * 8);
+            }
+        }
+
+        boolean mayMatch(Query q)
+        {
+            if(count == 0 || maxTs < q.from || minTs >= q.to) return false;
+            if(q.zone >= 0 && (q.zone >= 1024 || (zones[q.zone >>> 6] & 1L << q.zone) == 0)) return false;
+            if(q.partition >= 0 && (q.partition >= 64 || (partitions & 1L << q.partition) == 0)) return false;
+            return q.codes == null || q.codes.intersects(BitSet.valueOf(codes));
+        }
+
+        /** a copy of the summary as it was at the time, for reading outside the lock */
+        Segment copy()
+        {
+            final Segment s = new Segment(file, seq);
+            s.minTs = minTs;
+            s.maxTs = maxTs;
+            s.count = count;
+            s.end = end;
+            s.partitions = partitions;
+            System.arraycopy(codes, 0, s.codes, 0, codes.length);
+            System.arraycopy(zones, 0, s.zones, 0, zones.length);
+            return s;
+        }
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final int indexEvery;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment active;
+    private MappedByteBuffer buf;
+    private int nextIndex;
+
+    public PacketJournal(File dir) throws IOException
+    {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the journal in the directory, creating it if needed, and continues appending to its last segment.
+     */
+    public PacketJournal(File dir, int segmentSize) throws IOException
+    {
+        if(segmentSize < HEADER * 2) throw new IllegalArgumentException("Segment size too small " + segmentSize);
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create journal directory " + dir);
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.indexEvery = Math.max(1, (segmentSize - HEADER) / INDEX_ENTRIES);
+        final File[] files = dir.listFiles();
+        if(files != null) for(File f : files)
+        {
+            final Matcher m = SEGMENT.matcher(f.getName());
+            if(m.matches()) segments.add(new Segment(f, Integer.parseInt(m.group(1))));
+        }
+        segments.sort((a, b) -> Integer.compare(a.seq, b.seq));
+        for(Segment s : segments)
+        {
+            final ByteBuffer hdr = ByteBuffer.allocate(HEADER);
+            try(FileChannel ch = FileChannel.open(s.file.toPath(), StandardOpenOption.READ))
+            {
+                while(hdr.hasRemaining() && ch.read(hdr) >= 0);
+            }
+            s.load(hdr);
+        }
+        if(segments.isEmpty()) rotate();
+        else open(segments.get(segments.size() - 1));
+    }
+
+    private void open(Segment s) throws IOException
+    {
+        try(FileChannel ch = FileChannel.open(s.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                StandardOpenOption.WRITE))
+        {
+            buf = ch.map(MapMode.READ_WRITE, 0, segmentSize);
+        }
+        active = s;
+        nextIndex = HEADER + buf.getInt(INDEX_COUNT) * indexEvery;
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, VERSION);
+        buf.putLong(MIN_TS, s.minTs);
+        buf.putLong(MAX_TS, s.maxTs);
+        buf.putInt(END, s.end);
+    }
+
+    private void rotate() throws IOException
+    {
+        if(buf != null) buf.force();
+        final int seq = segments.isEmpty() ? 1 : segments.get(segments.size() - 1).seq + 1;
+        final Segment s = new Segment(new File(dir, String.format("seg-%08d.evj", seq)), seq);
+        open(s);
+        segments.add(s);
+    }
+
+    /**
+     * Appends the packet, stamped with the current time.
+     */
+    public void append(Packet pkt) throws IOException
+    {
+        append(System.currentTimeMillis(), pkt);
+    }
+
+    public synchronized void append(long ts, Packet pkt) throws IOException
+    {
+        if(buf == null) throw new IOException("Journal is closed");
+        final String data = pkt.getData();
+        final int len = Math.min(data.length(), MAX_DATA);
+        if(active.end + RECORD + len > segmentSize) rotate();
+        final Segment s = active;
+        final int code = pkt.getCmdCode();
+        final int zone = zoneOf(pkt), partition = partitionOf(pkt);
+
+        int pos = s.end;
+        if(pos >= nextIndex && buf.getInt(INDEX_COUNT) < INDEX_ENTRIES)
+        {
+            final int idx = buf.getInt(INDEX_COUNT);
+            buf.putLong(INDEX + idx * INDEX_ENTRY, ts);
+            buf.putInt(INDEX + idx * INDEX_ENTRY + 8, pos);
+            buf.putInt(INDEX_COUNT, idx + 1);
+            nextIndex = HEADER + (idx + 1) * indexEvery;
+        }
+        buf.putLong(pos, ts);
+        buf.putShort(pos + 8, (short)code);
+        buf.putShort(pos + 10, (short)zone);
+        buf.put(pos + 12, (byte)partition);
+        buf.put(pos + 13, (byte)len);
+        pos += RECORD;
+        for(int i = 0; i < len; i++) buf.put(pos + i, (byte)data.charAt(i));
+
+        s.end = pos + len;
+        s.count++;
+        if(ts < s.minTs) buf.putLong(MIN_TS, s.minTs = ts);
+        if(ts > s.maxTs) buf.putLong(MAX_TS, s.maxTs = ts);
+        if(code >= 0 && code < 1024) buf.putLong(CODES + (code >>> 6) * 8, s.codes[code >>> 6] |= 1L << code);
+        if(zone >= 0 && zone < 1024) buf.putLong(ZONES + (zone >>> 6) * 8, s.zones[zone >>> 6] |= 1L << zone);
+        if(partition >= 0 && partition < 64) buf.putLong(PARTITIONS, s.partitions |= 1L << partition);
+        buf.putInt(COUNT, s.count);
+        buf.putInt(END, s.end);
+    }
+
+    /**
+     * @return the zone the packet is about, -1 if none
+     */
+    static int zoneOf(Packet pkt)
+    {
+        final int code = pkt.getCmdCode();
+        if(code >= 601 && code <= 604) return parse(pkt.getData(), 1, 4);
+        if(code == 605 || code == 606 || code == 609 || code == 610) return parse(pkt.getData(), 0, 3);
+        return -1;
+    }
+
+    /**
+     * @return the partition the packet is about, -1 if none
+     */
+    static int partitionOf(Packet pkt)
+    {
+        final int code = pkt.getCmdCode();
+        if((code >= 601 && code <= 604) || (code >= 650 && code <= 674) || (code >= 700 && code <= 751)
+                || code == 840 || code == 841)
+            return parse(pkt.getData(), 0, 1);
+        return -1;
+    }
+
+    private static int parse(String data, int from, int to)
+    {
+        if(data.length() < to) return -1;
+        int val = 0;
+        for(int i = from; i < to; i++)
+        {
+            final char c = data.charAt(i);
+            if(c < '0' || c > '9') return -1;
+            val = val * 10 + c - '0';
+        }
+        return val;
+    }
+
+    /**
+     * Passes the matching records to the consumer in the order they were appended, reading only the
+     * segments whose summary says they may hold a match. The segments are mapped before any is read, so
+     * records deleted by {@link #deleteBefore(long)} meanwhile are still passed.
+     * @return the number of matching records
+     */
+    public int read(Query q, RecordConsumer con) throws IOException
+    {
+        final List<Segment> matching = new ArrayList<>();
+        final List<ByteBuffer> mapped = new ArrayList<>();
+        synchronized(this)
+        {
+            for(Segment s : segments)
+            {
+                if(!s.mayMatch(q)) continue;
+                if(s == active && buf != null)
+                {
+                    // the summary and buffer of the segment being appended to, as of now
+                    matching.add(s.copy());
+                    mapped.add(buf.duplicate());
+                }
+                else
+                {
+                    // under the lock, a mapping outlives the file being deleted
+                    matching.add(s);
+                    mapped.add(map(s));
+                }
+            }
+        }
+        int n = 0;
+        for(int i = 0; i < matching.size(); i++) n += read(matching.get(i), mapped.get(i), q, con);
+        return n;
+    }
+
+    private ByteBuffer map(Segment s) throws IOException
+    {
+        try(FileChannel ch = FileChannel.open(s.file.toPath(), StandardOpenOption.READ))
+        {
+            return ch.map(MapMode.READ_ONLY, 0, s.end);
+        }
+    }
+
+    private static int read(Segment s, ByteBuffer b, Query q, RecordConsumer con)
+    {
+        // start from the last indexed record before the range
+        int pos = HEADER;
+        final int indexed = b.getInt(INDEX_COUNT);
+        for(int i = 0; i < indexed && b.getLong(INDEX + i * INDEX_ENTRY) < q.from; i++)
+            pos = b.getInt(INDEX + i * INDEX_ENTRY + 8);
+
+        int n = 0;
+        byte[] data = new byte[MAX_DATA];
+        while(pos + RECORD <= s.end)
+        {
+            final long ts = b.getLong(pos);
+            if(ts >= q.to) break;
+            final int code = b.getShort(pos + 8);
+            final int zone = b.getShort(pos + 10);
+            final int partition = b.get(pos + 12);
+            final int len = b.get(pos + 13) & 0xFF;
+            if(q.matches(ts, code, zone, partition))
+            {
+                for(int i = 0; i < len; i++) data[i] = b.get(pos + RECORD + i);
+                con.accept(ts, new Packet(code, new String(data, 0, len, StandardCharsets.ISO_8859_1)));
+                n++;
+            }
+            pos += RECORD + len;
+        }
+        return n;
+    }
+
+    /**
+     * Deletes the segments that hold nothing newer than the given time, other than the one being appended to.
+     * @return the number of segments deleted
+     */
+    public synchronized int deleteBefore(long ts)
+    {
+        int n = 0;
+        for(Segment s : new ArrayList<>(segments))
+        {
+            if(s == active || s.maxTs >= ts) continue;
+            if(s.file.delete())
+            {
+                segments.remove(s);
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the number of segment files
+     */
+    public synchronized int segments()
+    {
+        return segments.size();
+    }
+
+    /**
+     * @return the number of segments a query would read
+     */
+    public synchronized int segments(Query q)
+    {
+        return (int)segments.stream().filter(s -> s.mayMatch(q)).count();
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if(buf == null) return;
+        buf.force();
+        buf = null;
+    }
+}
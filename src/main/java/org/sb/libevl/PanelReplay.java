@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds panel state from recorded packets by feeding them through the panel's own handlers, on the
+ * calling thread and without notifications, and publishes the state once at the end. Packets come from
+ * capture files, one TPI packet per line as received from the panel ({@code 609001XX}), or from a
+ * {@link PacketJournal}. Many panels are replayed in parallel, one fork join task per panel, each panel's
+ * packets in order.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class PanelReplay
+{
+    private static final Logger log = LoggerFactory.getLogger(PanelReplay.class);
+
+    /**
+     * @return the packets in the capture file, lines that are empty or fail the checksum are skipped
+     */
+    public static Stream<Packet> readCapture(Path capture) throws IOException
+    {
+        return Files.lines(capture, StandardCharsets.ISO_8859_1)
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty())
+                    .map(line -> {
+                        try
+                        {
+                            return Packet.deserialize(line);
+                        }
+                        catch (InvalidObjectException e)
+                        {
+                            log.warn("Skipping bad packet '{}' in {}: {}", line, capture, e.getMessage());
+                            return null;
+                        }
+                    })
+                    .filter(pkt -> pkt != null);
+    }
+
+    /**
+     * Applies the packets to the panel, which must not be receiving live packets meanwhile. A capture has no
+     * timestamps, so any events are stamped with the time they are replayed.
+     * @return the number of packets that had a handler
+     */
+    public static int replay(DscPanel panel, Stream<Packet> pkts)
+    {
+        try
+        {
+            return (int)pkts.filter(pkt -> panel.replay(System.currentTimeMillis(), pkt)).count();
+        }
+        finally
+        {
+            panel.replayed();
+        }
+    }
+
+    /**
+     * Applies the journaled packets matching the query to the panel.
+     * @return the number of packets that had a handler
+     */
+    public static int replay(DscPanel panel, PacketJournal journal, PacketJournal.Query query) throws IOException
+    {
+        final int[] handled = new int[1];
+        try
+        {
+            journal.read(query, (ts, pkt) -> {
+                if(panel.replay(ts, pkt)) handled[0]++;
+            });
+        }
+        finally
+        {
+            panel.replayed();
+        }
+        return handled[0];
+    }
+
+    /**
+     * Rebuilds one new panel per capture file, in parallel on the common pool.
+     */
+    public static <K> Map<K, DscPanel> rebuild(Map<K, Path> captures) throws IOException
+    {
+        return rebuild(captures, DscPanel::new, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Rebuilds one panel per capture file, in parallel on the pool.
+     * @param panels creates the panels to replay into
+     * @return the panels, by the key of their capture file
+     */
+    public static <K> Map<K, DscPanel> rebuild(Map<K, Path> captures, Supplier<DscPanel> panels, ForkJoinPool pool)
+            throws IOException
+    {
+        final List<Entry<K, ForkJoinTask<DscPanel>>> tasks = new ArrayList<>(captures.size());
+        for(Entry<K, Path> e : captures.entrySet())
+        {
+            final Path capture = e.getValue();
+            tasks.add(new SimpleEntry<>(e.getKey(), pool.submit(() -> {
+                final DscPanel panel = panels.get();
+                try(Stream<Packet> pkts = readCapture(capture))
+                {
+                    final int n = replay(panel, pkts);
+                    log.info("Replayed {} packets from {}", n, capture);
+                }
+                catch (IOException ex)
+                {
+                    throw new UncheckedIOException(ex);
+                }
+                return panel;
+            })));
+        }
+        final Map<K, DscPanel> rebuilt = new LinkedHashMap<>();
+        try
+        {
+            for(Entry<K, ForkJoinTask<DscPanel>> t : tasks) rebuilt.put(t.getKey(), t.getValue().join());
+        }
+        catch(UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        return rebuilt;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads that apply received packets to panel state, shared by all the panels they serve. Each panel is
+ * pinned to one shard, chosen by its id, so its packets are applied in order while the number of threads
+ * follows the number of cores rather than the number of panels. Notifications are delivered elsewhere, see
+ * {@link NotificationBus}, so a slow subscriber does not hold up a shard.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class PanelShards
+{
+    private static final PanelShards shared = new PanelShards(Runtime.getRuntime().availableProcessors());
+
+    private final ExecutorService[] shards;
+
+    public PanelShards(int count)
+    {
+        if(count < 1) throw new IllegalArgumentException("Need at least one shard");
+        shards = new ExecutorService[count];
+        for(int i = 0; i < count; i++)
+            shards[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                                                EvlConnectionManager.daemonThreads("evl-panel-" + i + "-"));
+    }
+
+    /**
+     * @return the shards used by panels created without an updater, one per core
+     */
+    public static PanelShards shared()
+    {
+        return shared;
+    }
+
+    /**
+     * Applies packets on the thread that received them, e.g. the connection's event loop, which saves a hand
+     * off. The panel's packets must then arrive from one thread at a time.
+     */
+    public static Executor inline()
+    {
+        return Runnable::run;
+    }
+
+    /**
+     * @return the shard of the panel, always the same one for the same id
+     */
+    public Executor forPanel(int id)
+    {
+        return shards[Math.floorMod(id, shards.length)];
+    }
+
+    public int size()
+    {
+        return shards.length;
+    }
+
+    /**
+     * Stops the threads once the packets already queued are applied; not meant for the {@link #shared()} ones.
+     */
+    public void shutdown()
+    {
+        for(ExecutorService shard : shards) shard.shutdown();
+    }
+}
@@ -0,0 +1,405 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PrimitiveIterator;
+import java.util.stream.Stream;
+
+import org.sb.libevl.DscPanel.AlarmState;
+import org.sb.libevl.DscPanel.Led;
+import org.sb.libevl.DscPanel.LedState;
+import org.sb.libevl.DscPanel.Partition;
+import org.sb.libevl.DscPanel.PartitionArmState;
+import org.sb.libevl.DscPanel.PartitionDelay;
+import org.sb.libevl.DscPanel.PartitionState;
+import org.sb.libevl.DscPanel.TroubleState;
+import org.sb.libevl.DscPanel.Zone;
+
+/**
+ * An immutable view of the panel state as of one version. The panel's updater builds a new snapshot after
+ * each packet that changed something and publishes it with a single volatile write, so readers never lock
+ * and never see a half applied packet. Sections that did not change are shared with the previous snapshot.
+ * <p>
+ * The json of every zone, partition and the keypad is rendered at most once and then carried over to later
+ * snapshots for as long as that entity does not change, so polling unchanged state does not allocate.
+ * <p>
+ * A snapshot can be saved in a compact binary form and read back on the next start. A snapshot read back is
+ * {@link #isStale() stale} until the panel applies the first live packet.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public final class PanelSnapshot implements JsonWriter.Writable
+{
+    static final PanelSnapshot EMPTY = new PanelSnapshot();
+
+    private static final int MAGIC = 0x45565331, FORMAT = 1;
+
+    private final long version;
+    private final boolean stale;
+    private final Date dateTime;
+    private final ZoneStore zones;
+    private final Map<Integer, Partition> partitions;
+    private final Led[] leds;
+    private final Map<String, AlarmState> alarms;
+    private final Map<String, TroubleState> troubles;
+
+    /** indexed by zone id, null for unknown zones */
+    private final Lazy<String>[] zoneJson;
+    private final Map<Integer, Lazy<String>> partitionJson;
+    private final Lazy<String> ledJson;
+    private final Lazy<String> json;
+
+    private PanelSnapshot()
+    {
+        this.version = 0;
+        this.stale = false;
+        this.dateTime = null;
+        this.zones = new ZoneStore(0);
+        this.partitions = Collections.emptyMap();
+        this.leds = new Led[0];
+        this.alarms = Collections.emptyMap();
+        this.troubles = Collections.emptyMap();
+        this.zoneJson = lazies(0);
+        this.partitionJson = Collections.emptyMap();
+        this.ledJson = Lazy.wrap(this::renderLeds);
+        this.json = Lazy.wrap(this::render);
+    }
+
+    /**
+     * All arguments other than prev must either be taken from prev or be private copies that are never
+     * written to again.
+     * @param stale true if the state was not received from the panel but restored
+     */
+    PanelSnapshot(PanelSnapshot prev, boolean stale, Date dateTime, ZoneStore zones,
+                    Map<Integer, Partition> partitions, Led[] leds, Map<String, AlarmState> alarms,
+                    Map<String, TroubleState> troubles)
+    {
+        this.version = prev.version + 1;
+        this.stale = stale;
+        this.dateTime = dateTime;
+        this.zones = zones;
+        this.partitions = partitions;
+        this.leds = leds;
+        this.alarms = alarms;
+        this.troubles = troubles;
+        this.zoneJson = zones == prev.zones ? prev.zoneJson : zoneJson(prev);
+        this.partitionJson = partitions == prev.partitions ? prev.partitionJson : partitionJson(prev);
+        this.ledJson = leds == prev.leds ? prev.ledJson : Lazy.wrap(this::renderLeds);
+        this.json = Lazy.wrap(this::render);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Lazy<String>[] lazies(int size)
+    {
+        return new Lazy[size];
+    }
+
+    private Lazy<String>[] zoneJson(PanelSnapshot prev)
+    {
+        final Lazy<String>[] json = lazies(zones.capacity());
+        zones.ids().forEach(zid -> {
+            final long state = zones.get(zid);
+            json[zid] = state == prev.zones.get(zid) ? prev.zoneJson[zid]
+                                                     : Lazy.wrap(() -> new Zone(zid, state).toJson());
+        });
+        return json;
+    }
+
+    private Map<Integer, Lazy<String>> partitionJson(PanelSnapshot prev)
+    {
+        final Map<Integer, Lazy<String>> json = new HashMap<>();
+        partitions.forEach((pid, p) -> json.put(pid, p == prev.partitions.get(pid) ? prev.partitionJson.get(pid)
+                                                                                    : Lazy.wrap(p::toJson)));
+        return json;
+    }
+
+    /**
+     * @return a number that increases every time the panel state changes
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return true if this snapshot is newer than the given version
+     */
+    public boolean changedSince(long version)
+    {
+        return this.version > version;
+    }
+
+    /**
+     * @return true if this state was restored from a saved snapshot and nothing was received from the panel yet
+     */
+    public boolean isStale()
+    {
+        return stale;
+    }
+
+    public Date getDateTime()
+    {
+        return dateTime == null ? null : new Date(dateTime.getTime());
+    }
+
+    public String getKeypadLeds()
+    {
+        return ledJson.get();
+    }
+
+    private String renderLeds()
+    {
+        return JsonWriter.toJson(this::writeLeds);
+    }
+
+    private void writeLeds(JsonWriter w) throws IOException
+    {
+        w.beginObject();
+        for(Led led : leds) led.writeJson(w);
+        w.endObject();
+    }
+
+    public Stream<String> alarms()
+    {
+        return alarms.entrySet().stream().filter(e -> e.getValue() == AlarmState.ALARM).map(e -> e.getKey());
+    }
+
+    public Stream<String> troubles()
+    {
+        return troubles.entrySet().stream().filter(e -> e.getValue() == TroubleState.TROUBLE).map(e -> e.getKey());
+    }
+
+    public BitSet openZoneSet()
+    {
+        return zones.open();
+    }
+
+    public BitSet faultedZoneSet()
+    {
+        return zones.faulted();
+    }
+
+    public BitSet alarmedZoneSet()
+    {
+        return zones.alarmed();
+    }
+
+    public BitSet problemZoneSet()
+    {
+        return zones.problems();
+    }
+
+    public Optional<String> getZone(int zoneId)
+    {
+        return zones.contains(zoneId) ? Optional.of(zoneJson[zoneId].get()) : Optional.empty();
+    }
+
+    public Stream<String> zones()
+    {
+        return zones.ids().mapToObj(zid -> zoneJson[zid].get());
+    }
+
+    public Optional<String> getPartition(int partId)
+    {
+        return Optional.ofNullable(partitionJson.get(partId)).map(p -> p.get());
+    }
+
+    public Stream<String> partitions()
+    {
+        return partitionJson.values().stream().map(p -> p.get());
+    }
+
+    /**
+     * @return the whole panel as one json document, rendered once per snapshot
+     */
+    public String toJson()
+    {
+        return json.get();
+    }
+
+    private String render()
+    {
+        return JsonWriter.toJson(this);
+    }
+
+    /**
+     * Streams the whole panel, reusing the fragments already rendered and writing the rest straight from the
+     * state, so dumping many panels needs no per entity strings.
+     */
+    @Override
+    public void writeJson(JsonWriter w) throws IOException
+    {
+        w.beginObject()
+            .member("version", version)
+            .member("stale", stale)
+            .member("dateTime", dateTime);
+
+        w.name("leds");
+        if(ledJson.isInitialized()) w.raw(ledJson.get());
+        else writeLeds(w);
+
+        w.name("zones").beginArray();
+        for(PrimitiveIterator.OfInt it = zones.ids().iterator(); it.hasNext();)
+        {
+            final int zid = it.nextInt();
+            if(zoneJson[zid].isInitialized()) w.raw(zoneJson[zid].get());
+            else new Zone(zid, zones.get(zid)).writeJson(w);
+        }
+        w.endArray();
+
+        w.name("partitions").beginArray();
+        for(Map.Entry<Integer, Partition> e : partitions.entrySet())
+        {
+            final Lazy<String> json = partitionJson.get(e.getKey());
+            if(json.isInitialized()) w.raw(json.get());
+            else e.getValue().writeJson(w);
+        }
+        w.endArray();
+
+        w.name("alarms").beginArray();
+        for(Map.Entry<String, AlarmState> e : alarms.entrySet())
+            if(e.getValue() == AlarmState.ALARM) w.value(e.getKey());
+        w.endArray();
+
+        w.name("troubles").beginArray();
+        for(Map.Entry<String, TroubleState> e : troubles.entrySet())
+            if(e.getValue() == TroubleState.TROUBLE) w.value(e.getKey());
+        w.endArray();
+
+        w.endObject();
+    }
+
+    Date dateTime()
+    {
+        return dateTime;
+    }
+
+    ZoneStore zoneStore()
+    {
+        return zones;
+    }
+
+    Map<Integer, Partition> partitionMap()
+    {
+        return partitions;
+    }
+
+    Led[] leds()
+    {
+        return leds;
+    }
+
+    Map<String, AlarmState> alarmMap()
+    {
+        return alarms;
+    }
+
+    Map<String, TroubleState> troubleMap()
+    {
+        return troubles;
+    }
+
+    /**
+     * Writes the state in a compact binary form, everything but the cached json and partition events.
+     */
+    void writeTo(DataOutput out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeLong(dateTime == null ? Long.MIN_VALUE : dateTime.getTime());
+        out.writeShort(zones.size());
+        for(PrimitiveIterator.OfInt it = zones.ids().iterator(); it.hasNext();)
+        {
+            final int zid = it.nextInt();
+            out.writeShort(zid);
+            out.writeLong(zones.get(zid));
+        }
+        out.writeByte(partitions.size());
+        for(Partition p : partitions.values())
+        {
+            out.writeByte(p.pid);
+            out.writeByte(p.state.ordinal());
+            out.writeByte(p.arm.ordinal());
+            out.writeByte(p.delay.ordinal());
+            out.writeBoolean(p.keypadLockout);
+            out.writeBoolean(p.installerMode);
+            out.writeBoolean(p.trouble);
+        }
+        out.writeByte(leds.length);
+        for(Led led : leds)
+        {
+            out.writeUTF(led.name);
+            out.writeByte(led.state.ordinal());
+        }
+        out.writeShort(alarms.size());
+        for(Map.Entry<String, AlarmState> e : alarms.entrySet())
+        {
+            out.writeUTF(e.getKey());
+            out.writeByte(e.getValue().ordinal());
+        }
+        out.writeShort(troubles.size());
+        for(Map.Entry<String, TroubleState> e : troubles.entrySet())
+        {
+            out.writeUTF(e.getKey());
+            out.writeByte(e.getValue().ordinal());
+        }
+    }
+
+    /**
+     * Reads back what {@link #writeTo(DataOutput)} wrote, as a stale snapshot.
+     */
+    static PanelSnapshot readFrom(DataInput in) throws IOException
+    {
+        if(in.readInt() != MAGIC || in.readInt() != FORMAT) throw new IOException("Not a saved panel state");
+        final long ts = in.readLong();
+        final ZoneStore zones = new ZoneStore();
+        for(int i = in.readUnsignedShort(); i > 0; i--)
+        {
+            final int zid = in.readUnsignedShort();
+            zones.put(zid, in.readLong());
+        }
+        final Map<Integer, Partition> partitions = new HashMap<>();
+        for(int i = in.readUnsignedByte(); i > 0; i--)
+        {
+            final Partition p = new Partition(in.readUnsignedByte());
+            p.state = value(PartitionState.values(), in.readUnsignedByte());
+            p.arm = value(PartitionArmState.values(), in.readUnsignedByte());
+            p.delay = value(PartitionDelay.values(), in.readUnsignedByte());
+            p.keypadLockout = in.readBoolean();
+            p.installerMode = in.readBoolean();
+            p.trouble = in.readBoolean();
+            partitions.put(p.pid, p);
+        }
+        final Led[] leds = new Led[in.readUnsignedByte()];
+        for(int i = 0; i < leds.length; i++)
+        {
+            leds[i] = new Led(in.readUTF());
+            leds[i].state = value(LedState.values(), in.readUnsignedByte());
+        }
+        final Map<String, AlarmState> alarms = new HashMap<>();
+        for(int i = in.readUnsignedShort(); i > 0; i--) alarms.put(in.readUTF(), value(AlarmState.values(), in.readUnsignedByte()));
+        final Map<String, TroubleState> troubles = new HashMap<>();
+        for(int i = in.readUnsignedShort(); i > 0; i--) troubles.put(in.readUTF(), value(TroubleState.values(), in.readUnsignedByte()));
+
+        return new PanelSnapshot(EMPTY, true, ts == Long.MIN_VALUE ? null : new Date(ts), zones,
+                                    Collections.unmodifiableMap(partitions), leds, Collections.unmodifiableMap(alarms),
+                                    Collections.unmodifiableMap(troubles));
+    }
+
+    private static <E> E value(E[] values, int ordinal) throws IOException
+    {
+        if(ordinal >= values.length) throw new IOException("Invalid saved state " + ordinal);
+        return values[ordinal];
+    }
+}
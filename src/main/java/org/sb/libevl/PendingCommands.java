@@ -0,0 +1,363 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Tracks the commands written to the TPI that are waiting for an acknowledgement. At most {@code window}
+ * commands are in flight, the rest are queued and written, in order, as acknowledgements arrive. Each
+ * command completes its own future, a 500 is matched to the oldest in-flight command with the acknowledged
+ * command code. Writes are also paced by a {@link SendPacer}, and a command the TPI turns away as busy is
+ * queued again, ahead of the others, up to {@link #MAX_RETRIES} times. Commands are written by the
+ * connection's sender, never under the lock, so a socket that cannot take them does not hold up the reader.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class PendingCommands
+{
+    interface Writer
+    {
+        void write(Packet pkt) throws IOException;
+    }
+
+    private static final ScheduledExecutorService timer =
+            Executors.newSingleThreadScheduledExecutor(EvlConnectionManager.daemonThreads("evl-ack-timer-"));
+
+    private static class Pending
+    {
+        final Packet pkt;
+        final CompletableFuture<Packet> ack = new CompletableFuture<>();
+        ScheduledFuture<?> timeout;
+        IOException writeError;
+        long sentNanos;
+        Object ackWait;
+        int retries;
+
+        Pending(Packet pkt)
+        {
+            this.pkt = pkt;
+        }
+    }
+
+    private final Writer writer;
+
+    /** writes the commands, one at a time and in the order they are handed to it */
+    private final Executor sender;
+
+    private final long timeoutMs;
+
+    private final ArrayDeque<Pending> inFlight = new ArrayDeque<>();
+
+    private final ArrayDeque<Pending> queued = new ArrayDeque<>();
+
+    private int window;
+
+    static final int MAX_RETRIES = 3;
+
+    private SendPacer pacer = SendPacer.defaults();
+
+    /** the pump scheduled for when the pacer has a token, or null */
+    private ScheduledFuture<?> paced;
+
+    private long retried;
+
+    /** from handing a command to the sender to its ack */
+    final TimeHistogram ackTimes = new TimeHistogram();
+
+    PendingCommands(Writer writer, Executor sender, int window, long timeoutMs)
+    {
+        this.writer = writer;
+        this.sender = sender;
+        this.window = window;
+        this.timeoutMs = timeoutMs;
+    }
+
+    CompletableFuture<Packet> submit(Packet pkt)
+    {
+        final Pending p = new Pending(pkt);
+        final List<Pending> failed;
+        synchronized(this)
+        {
+            queued.add(p);
+            failed = pump();
+        }
+        failWrites(failed);
+        return p.ack;
+    }
+
+    /**
+     * Hands queued commands to the sender while the window allows, must hold the lock. They are in flight,
+     * with their timeout running, from then on. Futures are never completed while holding the lock, so that
+     * dependent actions do not run under it, unless the sender writes on the calling thread and the write
+     * fails.
+     * @return the commands the sender would not take, or null
+     */
+    private List<Pending> pump()
+    {
+        List<Pending> failed = null;
+        while(inFlight.size() < window && !queued.isEmpty())
+        {
+            final long wait = pacer.reserve(System.nanoTime());
+            if(wait > 0)
+            {
+                if(paced == null) paced = timer.schedule(() -> onSender(this::resume), wait, TimeUnit.NANOSECONDS);
+                break;
+            }
+            final Pending p = queued.poll();
+            p.sentNanos = System.nanoTime();
+            p.ackWait = FlightEvents.startAckWait();
+            inFlight.add(p);
+            p.timeout = timer.schedule(() -> onSender(() -> expire(p)), timeoutMs, TimeUnit.MILLISECONDS);
+            try
+            {
+                // in flight first, a sender that runs the write right here may already fail it
+                sender.execute(() -> write(p));
+            }
+            catch(RejectedExecutionException re)
+            {
+                inFlight.remove(p);
+                p.timeout.cancel(false);
+                if(failed == null) failed = new ArrayList<>();
+                p.writeError = new IOException("Sender stopped", re);
+                failed.add(p);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * The timer is shared by every connection, so it only hands work over to the connection's own sender.
+     */
+    private void onSender(Runnable task)
+    {
+        try
+        {
+            sender.execute(task);
+        }
+        catch(RejectedExecutionException re)
+        {
+            // the connection is closed, and its commands failed by failAll
+        }
+    }
+
+    private void write(Pending p)
+    {
+        try
+        {
+            writer.write(p.pkt);
+        }
+        catch(IOException io)
+        {
+            final List<Pending> failed;
+            synchronized(this)
+            {
+                if(!inFlight.remove(p)) return;
+                p.timeout.cancel(false);
+                failed = pump();
+            }
+            failWrites(failed);
+            p.ack.completeExceptionally(io);
+        }
+    }
+
+    private void resume()
+    {
+        final List<Pending> failed;
+        synchronized(this)
+        {
+            paced = null;
+            failed = pump();
+        }
+        failWrites(failed);
+    }
+
+    private static void failWrites(List<Pending> failed)
+    {
+        if(failed != null) for(Pending p : failed) p.ack.completeExceptionally(p.writeError);
+    }
+
+    /**
+     * Completes the oldest in-flight command with the given command code.
+     * @return false if no such command was in flight
+     */
+    boolean ack(int cmdCode, Packet ackPkt)
+    {
+        final long now = System.nanoTime();
+        final Pending p = remove(pend -> pend.getCmdCode() == cmdCode, pend -> {
+            pacer.acked(now - pend.sentNanos, now);
+            return false;
+        });
+        if(p == null) return false;
+        ackTimes.record(now - p.sentNanos);
+        FlightEvents.ackWaited(p.ackWait, p.pkt.getCmdCode(), "acked");
+        p.ack.complete(ackPkt);
+        return true;
+    }
+
+    /**
+     * Fails the oldest in-flight command matching the predicate with a {@link CommandRejectedException}.
+     * @return false if no such command was in flight
+     */
+    boolean nack(Predicate<Packet> which, Packet nackPkt)
+    {
+        final Pending p = remove(which, pend -> false);
+        if(p == null) return false;
+        FlightEvents.ackWaited(p.ackWait, p.pkt.getCmdCode(), "rejected");
+        p.ack.completeExceptionally(new CommandRejectedException(p.pkt, nackPkt));
+        return true;
+    }
+
+    /**
+     * Slows the pacer down, and queues the oldest in-flight command to be written again, or fails it with a
+     * {@link CommandRejectedException} once it has been retried {@link #MAX_RETRIES} times.
+     * @return false if no command was in flight
+     */
+    boolean busy(Packet errPkt)
+    {
+        final long now = System.nanoTime();
+        synchronized(this)
+        {
+            pacer.overloaded(now);
+        }
+        final Pending p = remove(pend -> true, pend -> {
+            if(pend.retries++ == MAX_RETRIES) return false;
+            // before it is written again and starts a new wait
+            FlightEvents.ackWaited(pend.ackWait, pend.pkt.getCmdCode(), "busy");
+            return true;
+        });
+        if(p == null) return false;
+        if(p.retries <= MAX_RETRIES) return true;
+        FlightEvents.ackWaited(p.ackWait, p.pkt.getCmdCode(), "rejected");
+        p.ack.completeExceptionally(new CommandRejectedException(p.pkt, errPkt));
+        return true;
+    }
+
+    /**
+     * @param retry called under the lock with the command found, true to queue it again ahead of the others
+     */
+    private Pending remove(Predicate<Packet> which, Predicate<Pending> retry)
+    {
+        Pending found = null;
+        final List<Pending> failed;
+        synchronized(this)
+        {
+            for(Iterator<Pending> it = inFlight.iterator(); it.hasNext();)
+            {
+                final Pending p = it.next();
+                if(which.test(p.pkt))
+                {
+                    it.remove();
+                    found = p;
+                    break;
+                }
+            }
+            if(found == null) return null;
+            found.timeout.cancel(false);
+            if(retry.test(found))
+            {
+                queued.addFirst(found);
+                retried++;
+            }
+            failed = pump();
+        }
+        failWrites(failed);
+        return found;
+    }
+
+    private void expire(Pending p)
+    {
+        final List<Pending> failed;
+        synchronized(this)
+        {
+            if(!inFlight.remove(p)) return;
+            pacer.overloaded(System.nanoTime());
+            failed = pump();
+        }
+        failWrites(failed);
+        FlightEvents.ackWaited(p.ackWait, p.pkt.getCmdCode(), "timed out");
+        p.ack.completeExceptionally(new IOException("Command packet " + p.pkt + " not acknowledged within "
+                                                                        + timeoutMs + "ms"));
+    }
+
+    void failAll(IOException cause)
+    {
+        final List<Pending> all;
+        synchronized(this)
+        {
+            all = new ArrayList<>(inFlight);
+            all.addAll(queued);
+            inFlight.clear();
+            queued.clear();
+            if(paced != null) paced.cancel(false);
+            paced = null;
+        }
+        for(Pending p : all)
+        {
+            if(p.timeout != null) p.timeout.cancel(false);
+            p.ack.completeExceptionally(cause);
+        }
+    }
+
+    void setWindow(int window)
+    {
+        if(window < 1) throw new IllegalArgumentException("In-flight window must be at least 1");
+        final List<Pending> failed;
+        synchronized(this)
+        {
+            this.window = window;
+            failed = pump();
+        }
+        failWrites(failed);
+    }
+
+    void setPacer(SendPacer pacer)
+    {
+        final List<Pending> failed;
+        synchronized(this)
+        {
+            this.pacer = pacer;
+            failed = pump();
+        }
+        failWrites(failed);
+    }
+
+    synchronized double rate()
+    {
+        return pacer.rate();
+    }
+
+    synchronized long retried()
+    {
+        return retried;
+    }
+
+    synchronized int getWindow()
+    {
+        return window;
+    }
+
+    synchronized int inFlight()
+    {
+        return inFlight.size();
+    }
+
+    synchronized int queued()
+    {
+        return queued.size();
+    }
+}
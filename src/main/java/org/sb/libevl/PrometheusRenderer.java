@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Renders metrics in the Prometheus text format, grouping the samples of each metric under one help and type
+ * header whatever order they are visited in.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class PrometheusRenderer implements MetricsVisitor
+{
+    private final Map<String, StringBuilder> families = new LinkedHashMap<>();
+
+    /**
+     * @return the collected metrics in the text format
+     */
+    public static String render(EvlMetrics metrics)
+    {
+        final PrometheusRenderer r = new PrometheusRenderer();
+        metrics.collect(r);
+        return r.toString();
+    }
+
+    /**
+     * Serves the metrics on {@code /metrics} until the returned server is stopped.
+     */
+    public static HttpServer serve(EvlMetrics metrics, InetSocketAddress addr) throws IOException
+    {
+        final HttpServer server = HttpServer.create(addr, 0);
+        server.createContext("/metrics", ex -> {
+            final byte[] body = render(metrics).getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try(OutputStream out = ex.getResponseBody())
+            {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private StringBuilder family(String name, String help, String type)
+    {
+        return families.computeIfAbsent(name, n -> new StringBuilder().append("# HELP ").append(n).append(' ')
+                                                                      .append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+                                                                      .append("\n# TYPE ").append(n).append(' ')
+                                                                      .append(type).append('\n'));
+    }
+
+    private static StringBuilder sample(StringBuilder sb, String name, String[] labels, String le, String value)
+    {
+        sb.append(name);
+        if(labels.length > 0 || le != null)
+        {
+            sb.append('{');
+            for(int i = 0; i + 1 < labels.length; i += 2)
+            {
+                if(i > 0) sb.append(',');
+                label(sb, labels[i], labels[i + 1]);
+            }
+            if(le != null)
+            {
+                if(labels.length > 0) sb.append(',');
+                label(sb, "le", le);
+            }
+            sb.append('}');
+        }
+        return sb.append(' ').append(value).append('\n');
+    }
+
+    private static void label(StringBuilder sb, String name, String value)
+    {
+        sb.append(name).append("=\"");
+        for(int i = 0; i < value.length(); i++)
+        {
+            final char c = value.charAt(i);
+            switch(c)
+            {
+                case '\\': sb.append("\\\\"); break;
+                case '"': sb.append("\\\""); break;
+                case '\n': sb.append("\\n"); break;
+                default: sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static String number(double d)
+    {
+        if(d == Double.POSITIVE_INFINITY) return "+Inf";
+        if(d == (long)d) return Long.toString((long)d);
+        return Double.toString(d);
+    }
+
+    @Override
+    public void counter(String name, String help, long value, String... labels)
+    {
+        sample(family(name, help, "counter"), name, labels, null, Long.toString(value));
+    }
+
+    @Override
+    public void gauge(String name, String help, double value, String... labels)
+    {
+        sample(family(name, help, "gauge"), name, labels, null, number(value));
+    }
+
+    @Override
+    public void histogram(String name, String help, double[] bounds, long[] counts, double sum, String... labels)
+    {
+        final StringBuilder sb = family(name, help, "histogram");
+        for(int i = 0; i < bounds.length; i++) sample(sb, name + "_bucket", labels, number(bounds[i]), Long.toString(counts[i]));
+        sample(sb, name + "_sum", labels, null, number(sum));
+        sample(sb, name + "_count", labels, null, Long.toString(counts[counts.length - 1]));
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        for(StringBuilder family : families.values()) sb.append(family);
+        return sb.toString();
+    }
+}
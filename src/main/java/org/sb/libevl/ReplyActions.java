@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Predicate;
+
+/**
+ * The reply actions a connection is waiting on, indexed by the command codes they declare. Packets with a code
+ * nobody waits on cost a single array read. Actions that declare no codes are scanned for every packet, as
+ * before, but only while there are any. Actions that have not fired by their deadline are dropped.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class ReplyActions
+{
+    private static final int[] NO_CODES = new int[0];
+
+    private static class Waiting
+    {
+        final Predicate<Packet> pred;
+        final PacketFlow flow;
+        final int[] codes;
+        final long deadline;
+        boolean done;
+
+        Waiting(Predicate<Packet> pred, PacketFlow flow, int[] codes, long deadline)
+        {
+            this.pred = pred;
+            this.flow = flow;
+            this.codes = codes;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long expiryNanos;
+
+    /** number of actions waiting on each code, read without locking */
+    private final AtomicIntegerArray waiting = new AtomicIntegerArray(CommandTable.SIZE);
+
+    private volatile int unindexed;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<Waiting>[] byCode = new List[CommandTable.SIZE];
+
+    private final List<Waiting> anyCode = new ArrayList<>();
+
+    /** in registration order, which is also deadline order */
+    private final ArrayDeque<Waiting> byDeadline = new ArrayDeque<>();
+
+    ReplyActions(long expiry, TimeUnit unit)
+    {
+        this.expiryNanos = unit.toNanos(expiry);
+    }
+
+    void register(Entry<Predicate<Packet>, PacketFlow> action, int[] codes)
+    {
+        final long now = System.nanoTime();
+        final Waiting w = new Waiting(action.getKey(), action.getValue(), codes == null ? NO_CODES : codes,
+                                        now + expiryNanos);
+        synchronized(this)
+        {
+            expire(now);
+            byDeadline.add(w);
+            if(w.codes.length == 0)
+            {
+                anyCode.add(w);
+                unindexed = anyCode.size();
+            }
+            else for(int code : w.codes)
+            {
+                List<Waiting> l = byCode[code];
+                if(l == null) byCode[code] = l = new ArrayList<>(2);
+                l.add(w);
+                waiting.incrementAndGet(code);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the oldest action the packet satisfies.
+     * @return the flow to send in reply, or null
+     */
+    PacketFlow take(Packet pkt)
+    {
+        final int code = pkt.getCmdCode();
+        final boolean indexed = code >= 0 && code < CommandTable.SIZE && waiting.get(code) > 0;
+        if(!indexed && unindexed == 0) return null;
+        synchronized(this)
+        {
+            expire(System.nanoTime());
+            Waiting w = indexed ? find(byCode[code], pkt) : null;
+            if(w == null) w = find(anyCode, pkt);
+            if(w == null) return null;
+            remove(w);
+            return w.flow;
+        }
+    }
+
+    private static Waiting find(List<Waiting> l, Packet pkt)
+    {
+        if(l != null) for(Waiting w : l) if(w.pred.test(pkt)) return w;
+        return null;
+    }
+
+    /**
+     * Drops an action that will never fire, e.g. because its command failed.
+     */
+    synchronized void remove(Predicate<Packet> pred, PacketFlow flow)
+    {
+        for(Iterator<Waiting> it = byDeadline.iterator(); it.hasNext();)
+        {
+            final Waiting w = it.next();
+            if(w.pred == pred && w.flow == flow)
+            {
+                remove(w);
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    private void expire(long now)
+    {
+        Waiting w;
+        while((w = byDeadline.peek()) != null && (w.done || now - w.deadline > 0))
+        {
+            byDeadline.poll();
+            if(!w.done) remove(w);
+        }
+    }
+
+    private void remove(Waiting w)
+    {
+        w.done = true;
+        if(w.codes.length == 0)
+        {
+            anyCode.remove(w);
+            unindexed = anyCode.size();
+        }
+        else for(int code : w.codes)
+        {
+            if(byCode[code].remove(w)) waiting.decrementAndGet(code);
+        }
+    }
+
+    /**
+     * @return the number of actions waiting to fire
+     */
+    synchronized int size()
+    {
+        int size = 0;
+        for(Waiting w : byDeadline) if(!w.done) size++;
+        return size;
+    }
+}
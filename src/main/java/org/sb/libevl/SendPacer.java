@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the commands written to the TPI with a token bucket whose rate adapts to how the TPI copes: each
+ * prompt ack adds a little to the rate, each sign of overload, a buffer overrun, a busy keybus, a slow ack
+ * or a timeout, cuts it by half and empties the bucket. So a bulk operation settles just under the rate the
+ * panel can take, and backs off as soon as it cannot. A pacer belongs to one connection, see
+ * {@link EvlConnection#setPacer(SendPacer)}, and is only used under that connection's lock.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class SendPacer
+{
+    /** acks slower than this count as overload rather than success */
+    static final long SLOW_ACK_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final double minRate, maxRate, increase;
+
+    private final int burst;
+
+    private double rate, tokens;
+
+    private long refilled;
+
+    private long slowedDown;
+
+    /**
+     * @param minRate the rate, in commands per second, the pacer never backs off below
+     * @param maxRate the rate it starts at and never goes above
+     * @param burst the commands that may be written back to back after a quiet spell
+     */
+    public SendPacer(double minRate, double maxRate, int burst)
+    {
+        if(minRate <= 0 || maxRate < minRate) throw new IllegalArgumentException("Need 0 < minRate <= maxRate");
+        if(burst < 1) throw new IllegalArgumentException("Burst must be at least 1");
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.burst = burst;
+        this.increase = maxRate / 100;
+        this.rate = maxRate;
+        this.tokens = burst;
+        this.refilled = System.nanoTime();
+        this.slowedDown = refilled - (long)(TimeUnit.SECONDS.toNanos(1) / minRate);
+    }
+
+    /**
+     * @return a pacer for a single TPI, which starts at 100 commands a second
+     */
+    public static SendPacer defaults()
+    {
+        return new SendPacer(1, 100, 10);
+    }
+
+    /**
+     * Takes a token if there is one.
+     * @return 0 if the command may be written now, else the nanos until a token is due
+     */
+    long reserve(long now)
+    {
+        tokens = Math.min(burst, tokens + (now - refilled) * rate / TimeUnit.SECONDS.toNanos(1));
+        refilled = now;
+        if(tokens >= 1)
+        {
+            tokens -= 1;
+            return 0;
+        }
+        return (long)Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    void acked(long ackNanos, long now)
+    {
+        if(ackNanos > SLOW_ACK_NANOS) overloaded(now);
+        else rate = Math.min(maxRate, rate + increase);
+    }
+
+    /**
+     * Halves the rate, but only once per the time a command now takes, so that a burst of errors set off by
+     * the same commands counts as one.
+     */
+    void overloaded(long now)
+    {
+        if(now - slowedDown < TimeUnit.SECONDS.toNanos(1) / rate) return;
+        slowedDown = now;
+        rate = Math.max(minRate, rate / 2);
+        tokens = 0;
+    }
+
+    /**
+     * @return the current rate in commands per second
+     */
+    double rate()
+    {
+        return rate;
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs tasks one at a time, in submission order, on a shared executor. This gives each connection or panel
+ * the ordering of a single thread executor without dedicating a thread to it.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class SerialExecutor implements Executor
+{
+    private static final Logger log = LoggerFactory.getLogger(SerialExecutor.class);
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Executor executor;
+
+    SerialExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    @Override
+    public void execute(Runnable task)
+    {
+        tasks.add(task);
+        if(pending.getAndIncrement() == 0) executor.execute(this::drain);
+    }
+
+    private void drain()
+    {
+        do
+        {
+            try
+            {
+                tasks.poll().run();
+            }
+            catch(Exception e)
+            {
+                log.error("Task failed", e);
+            }
+            catch(Error e)
+            {
+                // this thread may die with it, so the remaining tasks go to another drain
+                if(pending.decrementAndGet() != 0) executor.execute(this::drain);
+                throw e;
+            }
+        }
+        while(pending.decrementAndGet() != 0);
+    }
+
+    int pending()
+    {
+        return pending.get();
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+/**
+ * Told when a received packet passes each stage on its way to the subscribers, for measuring where the time
+ * goes. There is at most one probe per JVM and none by default, in which case each stage costs a volatile
+ * read. Probes are called on the threads doing the work and must be quick.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public abstract class StageProbe
+{
+    public enum Stage
+    {
+        /** decoded from the socket by the connection */
+        DECODED,
+        /** taken up by the panel's updater, after the hand off from the connection */
+        DISPATCHED,
+        /** applied to the panel state and published in a snapshot */
+        APPLIED
+    }
+
+    private static volatile StageProbe installed;
+
+    public abstract void packet(Stage stage, Packet pkt, long nanos);
+
+    /**
+     * Called once the notification is in the queues of its subscribers.
+     */
+    public abstract void enqueued(Notification n, long nanos);
+
+    /**
+     * @param probe null to remove the installed one
+     */
+    public static void install(StageProbe probe)
+    {
+        installed = probe;
+    }
+
+    static void packet(Stage stage, Packet pkt)
+    {
+        final StageProbe probe = installed;
+        if(probe != null) probe.packet(stage, pkt, System.nanoTime());
+    }
+
+    static void enqueued(Notification n)
+    {
+        final StageProbe probe = installed;
+        if(probe != null) probe.enqueued(n, System.nanoTime());
+    }
+}
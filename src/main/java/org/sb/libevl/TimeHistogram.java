@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in buckets that double from 1 microsecond up to about 17 seconds, recording without
+ * locking or allocating.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+public class TimeHistogram
+{
+    /** the first bucket holds up to 2^10 nanos */
+    private static final int MIN_SHIFT = 10;
+
+    private static final int BUCKETS = 25;
+
+    private static final double[] bounds = new double[BUCKETS + 1];
+    static
+    {
+        for(int i = 0; i < BUCKETS; i++) bounds[i] = (double)(1L << (MIN_SHIFT + i)) / TimeUnit.SECONDS.toNanos(1);
+        bounds[BUCKETS] = Double.POSITIVE_INFINITY;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+
+    private final AtomicLong sum = new AtomicLong();
+
+    public void record(long nanos)
+    {
+        final int bucket = nanos <= 1L << MIN_SHIFT ? 0 : 64 - Long.numberOfLeadingZeros(nanos - 1) - MIN_SHIFT;
+        counts.incrementAndGet(Math.min(bucket, BUCKETS));
+        sum.addAndGet(nanos);
+    }
+
+    public long count()
+    {
+        long count = 0;
+        for(int i = 0; i <= BUCKETS; i++) count += counts.get(i);
+        return count;
+    }
+
+    /**
+     * Hands the histogram to the visitor, in seconds.
+     */
+    public void collect(String name, String help, MetricsVisitor visitor, String... labels)
+    {
+        final long[] cumulative = new long[BUCKETS + 1];
+        long count = 0;
+        for(int i = 0; i <= BUCKETS; i++) cumulative[i] = count += counts.get(i);
+        visitor.histogram(name, help, bounds.clone(), cumulative, (double)sum.get() / TimeUnit.SECONDS.toNanos(1),
+                            labels);
+    }
+}
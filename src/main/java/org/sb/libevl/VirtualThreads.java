@@ -0,0 +1,21 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.Optional;
+
+/**
+ * Virtual threads are not available before Java 21; the multi release jar carries a Java 21 version of this
+ * class that provides them.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class VirtualThreads
+{
+    static Optional<EvlExecutors> executors()
+    {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+import org.sb.libevl.DscPanel.AlarmState;
+import org.sb.libevl.DscPanel.FaultState;
+import org.sb.libevl.DscPanel.TamperState;
+import org.sb.libevl.DscPanel.ZoneState;
+
+/**
+ * Zone state packed into one {@code long} per zone, indexed by zone id, along with one bit mask per
+ * interesting state so that "which zones are open/faulted/alarmed" is a handful of word operations.
+ * There is a single writer, the panel's updater.
+ * <pre>
+ * bits 0-1 general, 2-3 alarm, 4-5 tamper, 6-7 fault (enum ordinals), 8-11 partition, 12 present
+ * </pre>
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class ZoneStore
+{
+    static final int GENERAL = 0, ALARM = 2, TAMPER = 4, FAULT = 6;
+
+    private static final int PARTITION = 8, PRESENT = 12;
+
+    /** a zone we have heard of but know nothing about */
+    static final long UNKNOWN = (long)ZoneState.UNKNOWN.ordinal() << GENERAL
+                              | (long)AlarmState.UNKNOWN.ordinal() << ALARM
+                              | (long)TamperState.UNKNOWN.ordinal() << TAMPER
+                              | (long)FaultState.UNKNOWN.ordinal() << FAULT
+                              | 1L << PRESENT;
+
+    private static final ZoneState[] zoneStates = ZoneState.values();
+    private static final AlarmState[] alarmStates = AlarmState.values();
+    private static final TamperState[] tamperStates = TamperState.values();
+    private static final FaultState[] faultStates = FaultState.values();
+
+    private static final int INITIAL_ZONES = 65;
+
+    private volatile long[] zones;
+
+    /** one bit per zone, indexed by field shift / 2 */
+    private volatile long[][] masks;
+
+    private volatile long[] present;
+
+    ZoneStore()
+    {
+        this(INITIAL_ZONES);
+    }
+
+    ZoneStore(int capacity)
+    {
+        zones = new long[capacity];
+        masks = new long[4][words(capacity)];
+        present = new long[words(capacity)];
+    }
+
+    private ZoneStore(ZoneStore other)
+    {
+        final long[][] m = new long[4][];
+        for(int i = 0; i < m.length; i++) m[i] = other.masks[i].clone();
+        zones = other.zones.clone();
+        masks = m;
+        present = other.present.clone();
+    }
+
+    /**
+     * @return a copy that is never written to, safe to share with readers once published
+     */
+    ZoneStore copy()
+    {
+        return new ZoneStore(this);
+    }
+
+    private static int words(int bits)
+    {
+        return (bits + 63) >>> 6;
+    }
+
+    private void ensure(int zid)
+    {
+        if(zid < 0 || zid >= CommandTable.SIZE) throw new IllegalArgumentException("Invalid zone " + zid);
+        if(zid < zones.length) return;
+        final int cap = Math.min(CommandTable.SIZE, Math.max(zid + 1, zones.length * 2));
+        final long[][] m = new long[4][];
+        for(int i = 0; i < m.length; i++) m[i] = Arrays.copyOf(masks[i], words(cap));
+        present = Arrays.copyOf(present, words(cap));
+        masks = m;
+        zones = Arrays.copyOf(zones, cap);
+    }
+
+    /**
+     * @return the packed state of the zone, 0 if the zone is not known
+     */
+    long get(int zid)
+    {
+        final long[] z = zones;
+        return zid >= 0 && zid < z.length ? z[zid] : 0;
+    }
+
+    /**
+     * @return one more than the largest zone id that can be held without growing
+     */
+    int capacity()
+    {
+        return zones.length;
+    }
+
+    boolean contains(int zid)
+    {
+        return get(zid) != 0;
+    }
+
+    /**
+     * Sets one of the 2 bit state fields (GENERAL, ALARM, TAMPER or FAULT) of the zone, creating it if needed.
+     * @return true if the zone changed
+     */
+    boolean set(int zid, int field, Enum<?> state)
+    {
+        ensure(zid);
+        final long old = zones[zid];
+        final long from = old == 0 ? UNKNOWN : old;
+        final long upd = (from & ~(3L << field)) | ((long)state.ordinal() << field);
+        if(upd == old) return false;
+        zones[zid] = upd;
+        present[zid >>> 6] |= 1L << zid;
+        // ordinal 1 is the OPEN/ALARM/TAMPER/FAULT state for every field
+        final long[] mask = masks[field >>> 1];
+        if(state.ordinal() == 1) mask[zid >>> 6] |= 1L << zid;
+        else mask[zid >>> 6] &= ~(1L << zid);
+        return true;
+    }
+
+    boolean setPartition(int zid, int partition)
+    {
+        ensure(zid);
+        final long old = zones[zid];
+        final long from = old == 0 ? UNKNOWN : old;
+        final long upd = (from & ~(0xFL << PARTITION)) | ((long)(partition & 0xF) << PARTITION);
+        if(upd == old) return false;
+        zones[zid] = upd;
+        present[zid >>> 6] |= 1L << zid;
+        return true;
+    }
+
+    /**
+     * Replaces the whole packed state of the zone, e.g. when restoring saved state.
+     */
+    void put(int zid, long state)
+    {
+        if(state == 0) throw new IllegalArgumentException("Zone " + zid + " has no state");
+        ensure(zid);
+        zones[zid] = state | 1L << PRESENT;
+        present[zid >>> 6] |= 1L << zid;
+        for(int field = GENERAL; field <= FAULT; field += 2)
+        {
+            final long[] mask = masks[field >>> 1];
+            if((state >>> field & 3) == 1) mask[zid >>> 6] |= 1L << zid;
+            else mask[zid >>> 6] &= ~(1L << zid);
+        }
+    }
+
+    static ZoneState general(long zone)
+    {
+        return zoneStates[(int)(zone >>> GENERAL) & 3];
+    }
+
+    static AlarmState alarm(long zone)
+    {
+        return alarmStates[(int)(zone >>> ALARM) & 3];
+    }
+
+    static TamperState tamper(long zone)
+    {
+        return tamperStates[(int)(zone >>> TAMPER) & 3];
+    }
+
+    static FaultState fault(long zone)
+    {
+        return faultStates[(int)(zone >>> FAULT) & 3];
+    }
+
+    /**
+     * @return the state in one of the 2 bit fields, UNKNOWN if the zone is not known
+     */
+    static Enum<?> state(long zone, int field)
+    {
+        final long z = zone == 0 ? UNKNOWN : zone;
+        switch(field)
+        {
+            case GENERAL: return general(z);
+            case ALARM: return alarm(z);
+            case TAMPER: return tamper(z);
+            case FAULT: return fault(z);
+            default: throw new IllegalArgumentException("Invalid field " + field);
+        }
+    }
+
+    static int partition(long zone)
+    {
+        return (int)(zone >>> PARTITION) & 0xF;
+    }
+
+    BitSet open()
+    {
+        return BitSet.valueOf(masks[GENERAL >>> 1]);
+    }
+
+    BitSet alarmed()
+    {
+        return BitSet.valueOf(masks[ALARM >>> 1]);
+    }
+
+    BitSet tampered()
+    {
+        return BitSet.valueOf(masks[TAMPER >>> 1]);
+    }
+
+    BitSet faulted()
+    {
+        return BitSet.valueOf(masks[FAULT >>> 1]);
+    }
+
+    /**
+     * @return zones that are faulted, tampered or in alarm
+     */
+    BitSet problems()
+    {
+        final long[][] m = masks;
+        final long[] words = m[ALARM >>> 1].clone();
+        for(int i = 0; i < words.length; i++) words[i] |= m[TAMPER >>> 1][i] | m[FAULT >>> 1][i];
+        return BitSet.valueOf(words);
+    }
+
+    int count(int field)
+    {
+        int count = 0;
+        for(long word : masks[field >>> 1]) count += Long.bitCount(word);
+        return count;
+    }
+
+    /**
+     * @return the ids of known zones, in order
+     */
+    IntStream ids()
+    {
+        return BitSet.valueOf(present).stream();
+    }
+
+    int size()
+    {
+        int count = 0;
+        for(long word : present) count += Long.bitCount(word);
+        return count;
+    }
+}
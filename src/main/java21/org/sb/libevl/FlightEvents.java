@@ -0,0 +1,176 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Records the packet path as Java Flight Recorder events, in the {@code libevl} category. While an event is
+ * not enabled in any recording its {@code start} method only reads a flag, so they can be left compiled in.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class FlightEvents
+{
+    @Name("org.sb.libevl.PacketReceived")
+    @Label("Packet Received")
+    @Category({"libevl", "Connection"})
+    @Description("A packet decoded by a connection, from handing it over until it is processed")
+    static class Received extends Event
+    {
+        @Label("Command Code")
+        int cmdCode;
+    }
+
+    @Name("org.sb.libevl.PacketProcessed")
+    @Label("Packet Processed")
+    @Category({"libevl", "Connection"})
+    @Description("A packet dispatched to an ack handler, a reply action or the state handler")
+    static class Processed extends Event
+    {
+        @Label("Command Code")
+        int cmdCode;
+
+        @Label("Handled By")
+        String handledBy;
+    }
+
+    @Name("org.sb.libevl.AckWait")
+    @Label("Ack Wait")
+    @Category({"libevl", "Connection"})
+    @Description("A command from being written until it is acknowledged, rejected or times out")
+    static class AckWait extends Event
+    {
+        @Label("Command Code")
+        int cmdCode;
+
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("org.sb.libevl.PacketApplied")
+    @Label("Packet Applied")
+    @Category({"libevl", "Panel"})
+    @Description("A packet applied to the panel state and published in a snapshot")
+    static class Applied extends Event
+    {
+        @Label("Panel")
+        int panel;
+
+        @Label("Command Code")
+        int cmdCode;
+
+        @Label("Changed")
+        boolean changed;
+    }
+
+    @Name("org.sb.libevl.NotificationPublished")
+    @Label("Notification Published")
+    @Category({"libevl", "Panel"})
+    @Description("A notification put in the queues of the panel's subscribers")
+    static class Notified extends Event
+    {
+        @Label("Panel")
+        int panel;
+
+        @Label("Command Code")
+        int cmdCode;
+
+        @Label("Type")
+        String type;
+
+        @Label("Entity")
+        int entity;
+    }
+
+    private static final EventType receivedType = EventType.getEventType(Received.class);
+    private static final EventType processedType = EventType.getEventType(Processed.class);
+    private static final EventType ackWaitType = EventType.getEventType(AckWait.class);
+    private static final EventType appliedType = EventType.getEventType(Applied.class);
+    private static final EventType notifiedType = EventType.getEventType(Notified.class);
+
+    private static <E extends Event> E begin(E event)
+    {
+        event.begin();
+        return event;
+    }
+
+    static Object startReceive()
+    {
+        return receivedType.isEnabled() ? begin(new Received()) : null;
+    }
+
+    static void received(Object event, int cmdCode)
+    {
+        if(event == null) return;
+        final Received e = (Received)event;
+        e.cmdCode = cmdCode;
+        e.commit();
+    }
+
+    static Object startProcess()
+    {
+        return processedType.isEnabled() ? begin(new Processed()) : null;
+    }
+
+    static void processed(Object event, int cmdCode, String handledBy)
+    {
+        if(event == null) return;
+        final Processed e = (Processed)event;
+        e.cmdCode = cmdCode;
+        e.handledBy = handledBy;
+        e.commit();
+    }
+
+    static Object startAckWait()
+    {
+        return ackWaitType.isEnabled() ? begin(new AckWait()) : null;
+    }
+
+    static void ackWaited(Object event, int cmdCode, String outcome)
+    {
+        if(event == null) return;
+        final AckWait e = (AckWait)event;
+        e.cmdCode = cmdCode;
+        e.outcome = outcome;
+        e.commit();
+    }
+
+    static Object startApply()
+    {
+        return appliedType.isEnabled() ? begin(new Applied()) : null;
+    }
+
+    static void applied(Object event, int panel, int cmdCode, boolean changed)
+    {
+        if(event == null) return;
+        final Applied e = (Applied)event;
+        e.panel = panel;
+        e.cmdCode = cmdCode;
+        e.changed = changed;
+        e.commit();
+    }
+
+    static Object startNotify()
+    {
+        return notifiedType.isEnabled() ? begin(new Notified()) : null;
+    }
+
+    static void notified(Object event, int panel, int cmdCode, Notification n)
+    {
+        if(event == null) return;
+        final Notified e = (Notified)event;
+        e.panel = panel;
+        e.cmdCode = cmdCode;
+        e.type = n.type.name();
+        e.entity = n.entity;
+        e.commit();
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package org.sb.libevl;
+
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs readers, senders and panel updaters on virtual threads. A panel's updater is a {@link SerialExecutor}
+ * that starts a virtual thread whenever it has packets to apply, so an idle panel holds no thread at all.
+ *
+ * @author sameetb
+ * @since 202610
+ */
+class VirtualThreads
+{
+    private static final ExecutorService perTask =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("evl-panel-", 0).factory());
+
+    private static final EvlExecutors executors = new EvlExecutors()
+    {
+        @Override
+        public Thread newThread(String name, Runnable task)
+        {
+            return Thread.ofVirtual().name(name).unstarted(task);
+        }
+
+        @Override
+        public ExecutorService newSingleThreadExecutor(String prefix)
+        {
+            return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                                            Thread.ofVirtual().name(prefix, 0).factory());
+        }
+
+        @Override
+        public Executor panelUpdater(int id)
+        {
+            return new SerialExecutor(perTask);
+        }
+    };
+
+    static Optional<EvlExecutors> executors()
+    {
+        return Optional.of(executors);
+    }
+}
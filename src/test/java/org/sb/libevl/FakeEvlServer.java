@@ -0,0 +1,97 @@
+package org.sb.libevl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal Envisalink TPI on loopback: logs the client in, acks every command and answers a status report
+ * with a burst of zone open packets.
+ */
+class FakeEvlServer implements Runnable
+{
+    private final ServerSocket server;
+    private final String password;
+    private final int zones;
+
+    FakeEvlServer(String password, int zones) throws IOException
+    {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.password = password;
+        this.zones = zones;
+        Thread th = new Thread(this, "fake-evl-" + server.getLocalPort());
+        th.setDaemon(true);
+        th.start();
+    }
+
+    int port()
+    {
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void run()
+    {
+        while(!server.isClosed())
+        try
+        {
+            final Socket sock = server.accept();
+            Thread th = new Thread(() -> session(sock));
+            th.setDaemon(true);
+            th.start();
+        }
+        catch(IOException e)
+        {
+            return;
+        }
+    }
+
+    private void session(Socket sock)
+    {
+        try(Socket s = sock)
+        {
+            final OutputStream out = s.getOutputStream();
+            final BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+            write(out, new Packet(505, "3"));
+            final Packet login = Packet.deserialize(in.readLine());
+            write(out, new Packet(500, "005"));
+            if(!password.equals(login.getData()))
+            {
+                write(out, new Packet(505, "0"));
+                return;
+            }
+            write(out, new Packet(505, "1"));
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                final Packet cmd = Packet.deserialize(line);
+                final StringBuilder sb = new StringBuilder();
+                sb.append(new Packet(500, String.format("%03d", cmd.getCmdCode())).serialize()).append("\r\n");
+                if(cmd.getCmdCode() == 1)
+                    for(int z = 1; z <= zones; z++)
+                        sb.append(new Packet(609, String.format("%03d", z)).serialize()).append("\r\n");
+                out.write(sb.toString().getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            }
+        }
+        catch(IOException e)
+        {
+        }
+    }
+
+    private static void write(OutputStream out, Packet pkt) throws IOException
+    {
+        out.write((pkt.serialize() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    void close() throws IOException
+    {
+        server.close();
+    }
+}
@@ -0,0 +1,279 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.management.ThreadMXBean;
+
+public class TestDscPanel
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static PanelSnapshot await(DscPanel panel, long version) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(!panel.changedSince(version - 1))
+        {
+            if(System.currentTimeMillis() > deadline) fail("Panel did not reach version " + version);
+            Thread.sleep(1);
+        }
+        return panel.snapshot();
+    }
+
+    @Test
+    public void testSnapshotsAreImmutable() throws InterruptedException
+    {
+        final DscPanel panel = new DscPanel();
+        try
+        {
+            assertEquals(0, panel.snapshot().getVersion());
+            panel.stateHandler.apply(new Packet(609, "005"));
+            final PanelSnapshot first = await(panel, 1);
+            assertEquals(BitSet.valueOf(new long[]{1L << 5}), first.openZoneSet());
+
+            panel.stateHandler.apply(new Packet(610, "005"));
+            panel.stateHandler.apply(new Packet(650, "1"));
+            final PanelSnapshot third = await(panel, 3);
+            assertTrue(third.openZoneSet().isEmpty());
+            assertTrue(third.getPartition(1).isPresent());
+
+            assertEquals(1, first.getVersion());
+            assertEquals(5, first.openZoneSet().nextSetBit(0));
+            assertFalse(first.getPartition(1).isPresent());
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testUnchangedStateKeepsVersion() throws InterruptedException
+    {
+        final DscPanel panel = new DscPanel();
+        try
+        {
+            panel.stateHandler.apply(new Packet(609, "007"));
+            panel.stateHandler.apply(new Packet(609, "007"));
+            panel.stateHandler.apply(new Packet(610, "008"));
+            final PanelSnapshot snap = await(panel, 2);
+            assertFalse(snap.changedSince(2));
+            assertEquals(2, snap.zones().count());
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testJsonCachedUntilChanged() throws InterruptedException
+    {
+        final DscPanel panel = new DscPanel();
+        try
+        {
+            panel.stateHandler.apply(new Packet(609, "001"));
+            panel.stateHandler.apply(new Packet(609, "002"));
+            final PanelSnapshot first = await(panel, 2);
+            final String zone1 = first.getZone(1).get();
+            final String zone2 = first.getZone(2).get();
+            assertSame(first.toJson(), first.toJson());
+
+            panel.stateHandler.apply(new Packet(610, "002"));
+            final PanelSnapshot second = await(panel, 3);
+            assertSame(zone1, second.getZone(1).get());
+            assertNotSame(zone2, second.getZone(2).get());
+            assertTrue(second.getZone(2).get().contains("CLOSED"));
+            assertTrue(first.toJson().contains("OPEN"));
+            assertNotEquals(first.toJson(), second.toJson());
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testEventsRenderedOnRead() throws InterruptedException
+    {
+        final DscPanel panel = new DscPanel();
+        try
+        {
+            panel.stateHandler.apply(new Packet(700, "10042"));
+            panel.stateHandler.apply(new Packet(663, "1"));
+            await(panel, 1);
+            panel.stateHandler.apply(new Packet(650, "1"));
+            await(panel, 2);
+            final List<String> events = panel.events(1).map(e -> e.getValue()).collect(Collectors.toList());
+            assertEquals(2, events.size());
+            assertTrue(events.get(0), events.get(0).startsWith("700 - ") && events.get(0).contains("'0042'"));
+            assertTrue(events.get(1).startsWith("663 - "));
+            assertEquals(0, panel.events(2).count());
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testRestoreSavedState() throws Exception
+    {
+        final File file = tmp.newFile();
+        file.delete();
+        final DscPanel panel = new DscPanel(null, file);
+        panel.stateHandler.apply(new Packet(609, "003"));
+        panel.stateHandler.apply(new Packet(510, "81"));
+        panel.stateHandler.apply(new Packet(652, "12"));
+        panel.stateHandler.apply(new Packet(802, ""));
+        final PanelSnapshot live = await(panel, 4);
+        panel.close();
+        assertTrue(file.exists());
+
+        final DscPanel restored = new DscPanel(null, file);
+        try
+        {
+            assertTrue(restored.isStale());
+            assertEquals(live.getZone(3), restored.getZone(3));
+            assertEquals(live.getPartition(1), restored.getPartition(1));
+            assertEquals(live.getKeypadLeds(), restored.getKeypadLeds());
+            assertEquals(Arrays.asList("Panel AC"), restored.troubles().collect(Collectors.toList()));
+
+            final long version = restored.snapshot().getVersion();
+            restored.stateHandler.apply(new Packet(609, "003"));
+            assertFalse(await(restored, version + 1).isStale());
+            assertEquals(live.getZone(3), restored.getZone(3));
+        }
+        finally
+        {
+            restored.close();
+        }
+    }
+
+    @Test
+    public void testRepeatsAllocateNothing()
+    {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+        final ThreadMXBean threads = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        final DscPanel panel = new DscPanel();
+        try
+        {
+            final Packet[] repeats = {new Packet(609, "003"), new Packet(610, "004"), new Packet(601, "1005"),
+                                      new Packet(603, "1006"), new Packet(605, "007"), new Packet(510, "81")};
+            for(Packet pkt : repeats) panel.replay(0, pkt);
+            for(int i = 0; i < 20000; i++) for(Packet pkt : repeats) panel.replay(0, pkt);
+            final long tid = Thread.currentThread().getId(), before = threads.getThreadAllocatedBytes(tid);
+            for(int i = 0; i < 1000; i++) for(Packet pkt : repeats) panel.replay(0, pkt);
+            final long perPacket = (threads.getThreadAllocatedBytes(tid) - before) / (1000 * repeats.length);
+            assertTrue(perPacket + " bytes per repeated packet", perPacket < 8);
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testCloseKeepsInterrupt()
+    {
+        final DscPanel panel = new DscPanel();
+        Thread.currentThread().interrupt();
+        panel.close();
+        assertTrue(Thread.interrupted());
+    }
+
+    @Test
+    public void testRepeatsSuppressed() throws InterruptedException
+    {
+        final DscPanel panel = new DscPanel();
+        try
+        {
+            final List<String> seen = new CopyOnWriteArrayList<>();
+            panel.notifications().subscribe(n -> seen.add(n.msg), 16, NotificationBus.Overflow.BLOCK);
+            panel.stateHandler.apply(new Packet(510, "81"));
+            panel.stateHandler.apply(new Packet(510, "81"));
+            panel.stateHandler.apply(new Packet(650, "1"));
+            panel.stateHandler.apply(new Packet(650, "1"));
+            panel.stateHandler.apply(new Packet(609, "003"));
+            panel.stateHandler.apply(new Packet(609, "003"));
+            panel.stateHandler.apply(new Packet(510, "01"));
+            final PanelSnapshot snap = await(panel, 4);
+            assertEquals(1, panel.suppressedCount(510));
+            assertEquals(1, panel.suppressedCount(650));
+            assertEquals(1, panel.suppressedCount(609));
+            assertEquals(0, panel.suppressedCount(610));
+            assertFalse(snap.changedSince(4));
+            final long end = System.currentTimeMillis() + 5000;
+            while(seen.size() < 4 && System.currentTimeMillis() < end) Thread.sleep(1);
+            assertEquals("[leds updated, READY, Zone 3 state: OPEN, leds updated]", seen.toString());
+
+            // events only add to the history, they do not copy the partition
+            final PanelSnapshot before = panel.snapshot();
+            panel.stateHandler.apply(new Packet(663, "1"));
+            panel.stateHandler.apply(new Packet(650, "1"));
+            final long deadline = System.currentTimeMillis() + 5000;
+            while(panel.suppressedCount(650) < 2 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            assertEquals(2, panel.suppressedCount(650));
+            assertSame(before, panel.snapshot());
+            assertEquals(1, panel.events(1).count());
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testInlineUpdater()
+    {
+        final DscPanel panel = new DscPanel(null, PanelShards.inline());
+        try
+        {
+            panel.stateHandler.apply(new Packet(609, "004"));
+            assertEquals(1, panel.snapshot().getVersion());
+            assertEquals(4, panel.snapshot().openZoneSet().nextSetBit(0));
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testShardsKeepPanelOrder() throws InterruptedException
+    {
+        final PanelShards shards = new PanelShards(2);
+        final DscPanel[] panels = new DscPanel[5];
+        try
+        {
+            for(int i = 0; i < panels.length; i++) panels[i] = new DscPanel(null, shards.forPanel(i));
+            for(int n = 0; n < 100; n++)
+                for(DscPanel panel : panels) panel.stateHandler.apply(new Packet(n % 2 == 0 ? 609 : 610, "001"));
+            for(DscPanel panel : panels)
+            {
+                final PanelSnapshot snap = await(panel, 100);
+                assertEquals(100, snap.getVersion());
+                assertTrue(snap.openZoneSet().isEmpty());
+            }
+        }
+        finally
+        {
+            for(DscPanel panel : panels) if(panel != null) panel.close();
+            shards.shutdown();
+        }
+    }
+}
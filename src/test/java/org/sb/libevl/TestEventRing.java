@@ -0,0 +1,46 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class TestEventRing
+{
+    @Test
+    public void testOverwritesOldest()
+    {
+        final EventRing ring = new EventRing(3);
+        assertEquals(4, ring.capacity());
+        for(int i = 0; i < 10; i++) ring.add(1000 + i, 700, 1, i);
+        final List<Integer> args = new ArrayList<>();
+        assertEquals(4, ring.forEach((ts, code, partition, arg) -> {
+            assertEquals(1000 + arg, ts);
+            assertEquals(700, code);
+            assertEquals(1, partition);
+            args.add(arg);
+        }));
+        assertEquals(10, ring.count());
+        assertEquals("[6, 7, 8, 9]", args.toString());
+    }
+
+    @Test
+    public void testReadersNeverSeeTornEvents() throws InterruptedException
+    {
+        final EventRing ring = new EventRing(16);
+        final AtomicBoolean torn = new AtomicBoolean();
+        final Thread writer = new Thread(() -> {
+            for(int i = 0; i < 200000; i++) ring.add(i, i % 1000, i & 0xF, i);
+        });
+        writer.start();
+        while(writer.isAlive())
+            ring.forEach((ts, code, partition, arg) -> {
+                if(ts != arg || code != arg % 1000 || partition != (arg & 0xF)) torn.set(true);
+            });
+        writer.join();
+        assertFalse(torn.get());
+    }
+}
@@ -0,0 +1,84 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestEvlConnectionManager
+{
+    private static final int ZONES = 16;
+
+    private final List<FakeEvlServer> servers = new ArrayList<>();
+
+    private EvlConnectionManager mgr;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        for(int i = 0; i < 3; i++) servers.add(new FakeEvlServer("user", ZONES));
+        mgr = new EvlConnectionManager(1);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        mgr.close();
+        for(FakeEvlServer srv : servers) srv.close();
+    }
+
+    @Test
+    public void testManyPanelsOneLoop() throws Exception
+    {
+        final CountDownLatch zones = new CountDownLatch(ZONES * servers.size());
+        final List<EvlConnection> conns = new ArrayList<>();
+        for(FakeEvlServer srv : servers)
+            conns.add(mgr.connect(InetAddress.getLoopbackAddress(), Optional.of(srv.port()), () -> "user",
+                    pkt -> {
+                        if(pkt.getCmdCode() != 609) return false;
+                        zones.countDown();
+                        return true;
+                    }));
+        assertEquals(servers.size(), mgr.size());
+
+        for(EvlConnection conn : conns) conn.send(new Commands().statusReport());
+        assertTrue(zones.await(5, TimeUnit.SECONDS));
+
+        for(EvlConnection conn : conns)
+            assertTrue(conn.sendAsync(new PacketFlow(new Commands().poll())).get(5, TimeUnit.SECONDS));
+
+        conns.get(0).close();
+        assertFalse(conns.get(0).isAlive());
+        assertTrue(conns.get(1).isAlive());
+        assertEquals(servers.size() - 1, mgr.size());
+    }
+
+    @Test
+    public void testPipelinedAcks() throws Exception
+    {
+        final EvlConnection conn = mgr.connect(InetAddress.getLoopbackAddress(), Optional.of(servers.get(0).port()), 
+                                                () -> "user", pkt -> true);
+        conn.setAckWindow(4);
+        final Commands cmds = new Commands();
+        final List<CompletableFuture<Packet>> acks = new ArrayList<>();
+        for(int i = 0; i < 50; i++) acks.add(conn.sendCommand(i % 2 == 0 ? cmds.poll() : cmds.broadcastTemperature(true)));
+        for(int i = 0; i < acks.size(); i++)
+            assertEquals(i % 2 == 0 ? "000" : "057", acks.get(i).get(5, TimeUnit.SECONDS).getData());
+    }
+
+    @Test(expected = IOException.class)
+    public void testBadPassword() throws Exception
+    {
+        mgr.connect(InetAddress.getLoopbackAddress(), Optional.of(servers.get(0).port()), () -> "wrong", pkt -> false);
+    }
+}
@@ -0,0 +1,170 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestEvlEmulator
+{
+    private static void await(DscPanel panel, long version) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(!panel.changedSince(version - 1))
+        {
+            if(System.currentTimeMillis() > deadline) fail("Panel did not reach version " + version);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testStatusAndArm() throws Exception
+    {
+        final EvlConnectionManager mgr = new EvlConnectionManager(1);
+        try(EvlEmulator emu = new EvlEmulator(EvlEmulator.Options.defaults().zones(8).loops(1)))
+        {
+            final DscPanel panel = new DscPanel(null, PanelShards.inline());
+            final EvlConnection conn = mgr.connect(InetAddress.getLoopbackAddress(), Optional.of(emu.port()),
+                                                    () -> "user", panel.stateHandler);
+            assertEquals("001", conn.sendCommand(new Commands().statusReport()).get(5, TimeUnit.SECONDS).getData());
+            await(panel, 1);
+            final long deadline = System.currentTimeMillis() + 5000;
+            while(panel.zones().count() < 8 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            assertEquals(8, panel.zones().count());
+
+            assertEquals("033", conn.sendCommand(new Commands().arm(1, "1234")).get(5, TimeUnit.SECONDS).getData());
+            while(!panel.getPartition(1).orElse("").contains("\"ARMED\"") && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+            assertTrue(panel.getPartition(1).get(), panel.getPartition(1).get().contains("\"ARMED\""));
+            assertEquals(1, emu.sessions());
+            conn.close();
+            panel.close();
+        }
+        finally
+        {
+            mgr.close();
+        }
+    }
+
+    @Test
+    public void testBadPassword() throws Exception
+    {
+        final EvlConnectionManager mgr = new EvlConnectionManager(1);
+        try(EvlEmulator emu = new EvlEmulator(EvlEmulator.Options.defaults().password("secret")))
+        {
+            mgr.connect(InetAddress.getLoopbackAddress(), Optional.of(emu.port()), () -> "user", pkt -> true);
+            fail("Logged in with a bad password");
+        }
+        catch(IOException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("incorrect"));
+        }
+        finally
+        {
+            mgr.close();
+        }
+    }
+
+    @Test
+    public void testRepliesWaitForSlowClient() throws Exception
+    {
+        final int commands = 2000;
+        try(EvlEmulator emu = new EvlEmulator(EvlEmulator.Options.defaults().zones(200));
+            Socket sock = new Socket())
+        {
+            sock.setReceiveBufferSize(4096);
+            // a dropped reply fails the test rather than hanging it
+            sock.setSoTimeout(10000);
+            sock.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), emu.port()));
+            final BufferedReader in = new BufferedReader(new InputStreamReader(sock.getInputStream(),
+                                                                                StandardCharsets.US_ASCII));
+            final OutputStream out = sock.getOutputStream();
+            assertEquals(new Packet(505, "3").serialize(), in.readLine());
+            out.write((new Packet(5, "user").serialize() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            assertEquals(new Packet(500, "005").serialize(), in.readLine());
+            assertEquals(new Packet(505, "1").serialize(), in.readLine());
+            // each status dump is a few KB, far more than the client takes before it reads
+            final byte[] status = (new Commands().statusReport().serialize() + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            for(int i = 0; i < commands; i++) out.write(status);
+            Thread.sleep(200);
+            final String ack = new Packet(500, "001").serialize();
+            int acks = 0;
+            for(String line; acks < commands && (line = in.readLine()) != null;) if(line.equals(ack)) acks++;
+            assertEquals(commands, acks);
+            assertEquals(0, emu.dropped());
+        }
+    }
+
+    @Test
+    public void testManySessionsBroadcasting() throws Exception
+    {
+        final EvlConnectionManager mgr = new EvlConnectionManager(2);
+        try(EvlEmulator emu = new EvlEmulator(EvlEmulator.Options.defaults().rate(200).loops(2)))
+        {
+            final List<DscPanel> panels = new ArrayList<>();
+            for(int i = 0; i < 50; i++)
+            {
+                final DscPanel panel = new DscPanel();
+                panels.add(panel);
+                mgr.connect(InetAddress.getLoopbackAddress(), Optional.of(emu.port()), () -> "user", panel.stateHandler);
+            }
+            assertEquals(50, emu.sessions());
+            for(DscPanel panel : panels) await(panel, 3);
+            for(DscPanel panel : panels) panel.close();
+        }
+        finally
+        {
+            mgr.close();
+        }
+    }
+
+    @Test
+    public void testCaptureAndBusy() throws Exception
+    {
+        final List<Packet> capture = Arrays.asList(new Packet(609, "005"), new Packet(610, "005"));
+        final EvlConnectionManager mgr = new EvlConnectionManager(1);
+        try(EvlEmulator emu = new EvlEmulator(EvlEmulator.Options.defaults().capture(capture).rate(100).busy(1)))
+        {
+            final DscPanel panel = new DscPanel(null, PanelShards.inline());
+            final EvlConnection conn = mgr.connect(InetAddress.getLoopbackAddress(), Optional.of(emu.port()),
+                                                    () -> "user", panel.stateHandler);
+            await(panel, 2);
+            assertEquals(1, panel.zones().count());
+            assertTrue(panel.getZone(5).isPresent());
+            final long before = emu.received();
+            // busy is a 502 rather than an ack, the command is sent again until it runs out of retries
+            final CompletableFuture<Packet> ack = conn.sendCommand(new Commands().poll());
+            try
+            {
+                ack.get(5, TimeUnit.SECONDS);
+                fail("Busy command was acknowledged");
+            }
+            catch(ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof CommandRejectedException);
+            }
+            assertEquals(before + 1 + PendingCommands.MAX_RETRIES, emu.received());
+            conn.close();
+            panel.close();
+        }
+        finally
+        {
+            mgr.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestEvlExecutors
+{
+    @Test
+    public void testPlatform() throws Exception
+    {
+        final EvlExecutors ex = EvlExecutors.platform();
+        final Thread th = ex.newThread("evl-test", () -> {});
+        assertTrue(th.isDaemon());
+        assertEquals(Thread.State.NEW, th.getState());
+        assertSame(ex.panelUpdater(3), ex.panelUpdater(3 + PanelShards.shared().size()));
+
+        final ExecutorService sender = ex.newSingleThreadExecutor("evl-test-");
+        try
+        {
+            assertTrue(sender.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS).startsWith("evl-test-"));
+        }
+        finally
+        {
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void testSerialSurvivesError() throws Exception
+    {
+        final ExecutorService pool = Executors.newCachedThreadPool();
+        try
+        {
+            final SerialExecutor serial = new SerialExecutor(pool);
+            final CountDownLatch ran = new CountDownLatch(2);
+            serial.execute(() -> { throw new AssertionError("task error"); });
+            serial.execute(ran::countDown);
+            serial.execute(ran::countDown);
+            assertTrue(ran.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestFrameDecoder
+{
+    private static class Collector implements FrameDecoder.FrameHandler
+    {
+        final List<Packet> packets = new ArrayList<>();
+        int errors;
+
+        @Override
+        public void onPacket(MutablePacket pkt)
+        {
+            packets.add(pkt.toPacket());
+        }
+
+        @Override
+        public void onError(InvalidObjectException ex)
+        {
+            errors++;
+        }
+    }
+
+    /**
+     * Feeds the text as a reader would, a buffer's worth at a time, draining after each read.
+     */
+    private static void feed(FrameDecoder dec, String text, Collector c)
+    {
+        final byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        for(int off = 0; off < bytes.length;)
+        {
+            final ByteBuffer buf = dec.buffer();
+            final int n = Math.min(buf.remaining(), bytes.length - off);
+            buf.put(bytes, off, n);
+            off += n;
+            dec.drain(c);
+        }
+    }
+
+    @Test
+    public void testSplitFrames()
+    {
+        final FrameDecoder dec = new FrameDecoder();
+        final Collector c = new Collector();
+        final String pkt = new Packet(609, "012").serialize(), ack = new Packet(500, "").serialize();
+        feed(dec, "654", c);
+        feed(dec, "3D2\r", c);
+        assertTrue(c.packets.isEmpty());
+        // bare LF as well as CRLF
+        feed(dec, "\n" + pkt.substring(0, 4), c);
+        feed(dec, pkt.substring(4) + "\n" + ack.substring(0, 2), c);
+        feed(dec, ack.substring(2) + "\r\n", c);
+        assertEquals(Arrays.asList(new Packet(654, "3"), new Packet(609, "012"), new Packet(500, "")), c.packets);
+        assertEquals(0, c.errors);
+    }
+
+    @Test
+    public void testOversizedFrame()
+    {
+        final FrameDecoder dec = new FrameDecoder(16);
+        final Collector c = new Collector();
+        final StringBuilder big = new StringBuilder("609");
+        for(int i = 0; i < 40; i++) big.append('0');
+        feed(dec, "6543D2\r\n" + big + "\r\n6543D2\r\n", c);
+        // none of the oversized frame is decoded as a frame of its own
+        assertEquals(Arrays.asList(new Packet(654, "3"), new Packet(654, "3")), c.packets);
+        assertEquals(0, c.errors);
+    }
+
+    @Test
+    public void testBadFrameSkipped()
+    {
+        final FrameDecoder dec = new FrameDecoder();
+        final Collector c = new Collector();
+        feed(dec, "6543D3\r\n6543D2\n", c);
+        assertEquals(Arrays.asList(new Packet(654, "3")), c.packets);
+        assertEquals(1, c.errors);
+    }
+}
@@ -0,0 +1,54 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestJsonWriter
+{
+    @Test
+    public void testSameLayoutAsJsonHelper() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        new JsonWriter(sb).beginObject().member("id", 1).member("state", "OPEN").endObject();
+        assertEquals(JsonHelper.obj(JsonHelper.json("id", 1), JsonHelper.json("state", "OPEN")), sb.toString());
+    }
+
+    @Test
+    public void testNesting() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        new JsonWriter(sb).beginObject()
+                            .name("a").beginArray().value("x").value("y").endArray()
+                            .name("b").beginObject().member("c", "d").endObject()
+                          .endObject();
+        assertEquals("{\n\"a\" : [ \"x\", \"y\" ],\n\"b\" : {\n\"c\" : \"d\"}\n}\n", sb.toString());
+    }
+
+    @Test
+    public void testEscaping() throws IOException
+    {
+        final StringBuilder sb = new StringBuilder();
+        JsonWriter.quote("a\"b\\c\nd\u0001", sb);
+        assertEquals("\"a\\\"b\\\\c\\nd\\u0001\"", sb.toString());
+    }
+
+    @Test
+    public void testByteBuffer() throws IOException
+    {
+        final ByteBuffer buf = ByteBuffer.allocate(64);
+        new JsonWriter(buf).beginArray().value("\u00e9\u20ac\ud83d\ude00").endArray();
+        buf.flip();
+        assertEquals("[ \"\u00e9\u20ac\ud83d\ude00\" ]", StandardCharsets.UTF_8.decode(buf).toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnbalanced() throws IOException
+    {
+        new JsonWriter(new StringBuilder()).beginObject().endArray();
+    }
+}
@@ -0,0 +1,64 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestMetrics
+{
+    @Test
+    public void testHistogramBuckets()
+    {
+        final TimeHistogram h = new TimeHistogram();
+        h.record(1000);
+        h.record(1024);
+        h.record(1025);
+        h.record(Long.MAX_VALUE / 2);
+        assertEquals(4, h.count());
+        final PrometheusRenderer r = new PrometheusRenderer();
+        h.collect("t_seconds", "Times", r);
+        final String text = r.toString();
+        assertTrue(text, text.contains("# TYPE t_seconds histogram\n"));
+        assertTrue(text, text.contains("t_seconds_bucket{le=\"" + 1024 / 1e9 + "\"} 2\n"));
+        assertTrue(text, text.contains("t_seconds_bucket{le=\"" + 2048 / 1e9 + "\"} 3\n"));
+        assertTrue(text, text.contains("t_seconds_bucket{le=\"+Inf\"} 4\n"));
+        assertTrue(text, text.contains("t_seconds_count 4\n"));
+    }
+
+    @Test
+    public void testRender() throws InterruptedException
+    {
+        final DscPanel a = new DscPanel(null, PanelShards.inline()), b = new DscPanel(null, PanelShards.inline());
+        try
+        {
+            a.stateHandler.apply(new Packet(609, "001"));
+            a.stateHandler.apply(new Packet(609, "001"));
+            b.stateHandler.apply(new Packet(999, "x"));
+            b.stateHandler.apply(new Packet(610, "002"));
+            final String text = PrometheusRenderer.render(new EvlMetrics().register("b", b).register("a\"", a));
+
+            assertTrue(text, text.contains("evl_panel_suppressed_packets_total{source=\"a\\\"\",code=\"609\"} 1\n"));
+            assertTrue(text, text.contains("evl_panel_unhandled_packets_total{source=\"b\",code=\"999\"} 1\n"));
+            assertTrue(text, text.contains("evl_panel_handler_seconds_count{source=\"b\"} 1\n"));
+            // one header per metric, with the samples of all sources under it
+            final int header = text.indexOf("# TYPE evl_panel_version gauge\n");
+            assertTrue(text, header >= 0);
+            assertEquals(header, text.lastIndexOf("# TYPE evl_panel_version gauge"));
+            final String family = text.substring(header, text.indexOf("# HELP", header));
+            assertTrue(family, family.contains("evl_panel_version{source=\"a\\\"\"} 1\n"));
+            assertTrue(family, family.contains("evl_panel_version{source=\"b\"} 1\n"));
+        }
+        finally
+        {
+            a.close();
+            b.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateSource()
+    {
+        final DscPanel panel = new DscPanel(null, PanelShards.inline());
+        new EvlMetrics().register("p", panel).register("p", panel);
+    }
+}
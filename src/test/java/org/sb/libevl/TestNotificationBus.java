@@ -0,0 +1,241 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.sb.libevl.DscPanel.AlarmState;
+import org.sb.libevl.DscPanel.PartitionState;
+import org.sb.libevl.DscPanel.ZoneState;
+
+import com.sun.management.ThreadMXBean;
+
+public class TestNotificationBus
+{
+    private static Notification zone(int zid, String msg)
+    {
+        return new Notification(Notification.Type.ZONE, new Date(), msg, zid, true);
+    }
+
+    /**
+     * A subscriber that is stuck on its first notification until released.
+     */
+    private static class Slow
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final List<String> got = new CopyOnWriteArrayList<>();
+
+        void accept(Notification n)
+        {
+            started.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+            }
+            got.add(n.msg);
+        }
+
+        void await(int count) throws InterruptedException
+        {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while(got.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testCoalesce() throws InterruptedException
+    {
+        final NotificationBus bus = new NotificationBus();
+        final Slow slow = new Slow();
+        final NotificationBus.Subscription sub = bus.subscribe(slow::accept, 4, NotificationBus.Overflow.COALESCE);
+        bus.publish(zone(1, "first"));
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        bus.publish(zone(1, "a"));
+        bus.publish(zone(2, "b"));
+        bus.publish(zone(1, "c"));
+        bus.publish(new Notification(Notification.Type.MISC, new Date(), "event"));
+        bus.publish(zone(2, "d"));
+        assertEquals(3, sub.pending());
+        assertEquals(2, sub.coalesced());
+        slow.release.countDown();
+        slow.await(4);
+        assertEquals("[first, c, d, event]", slow.got.toString());
+        assertEquals(0, sub.dropped());
+    }
+
+    @Test
+    public void testAlarmReachesSlowSubscriber() throws InterruptedException
+    {
+        final DscPanel panel = new DscPanel(null, PanelShards.inline());
+        try
+        {
+            final Slow slow = new Slow();
+            panel.notifications().subscribe(slow::accept, 16, NotificationBus.Overflow.COALESCE);
+            panel.stateHandler.apply(new Packet(609, "005"));
+            assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+            panel.stateHandler.apply(new Packet(610, "005"));
+            panel.stateHandler.apply(new Packet(601, "1005"));
+            panel.stateHandler.apply(new Packet(609, "005"));
+            slow.release.countDown();
+            slow.await(3);
+            // the zone's state coalesces, its alarm does not
+            assertEquals("[Zone 5 state: OPEN, Zone 5 state: OPEN, Zone 5 alarm: ALARM]", slow.got.toString());
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testPanelNotifierNeverHoldsUpdater() throws InterruptedException
+    {
+        final Slow slow = new Slow();
+        final DscPanel panel = new DscPanel(slow::accept, PanelShards.inline());
+        try
+        {
+            panel.stateHandler.apply(new Packet(609, "005"));
+            assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+            // far more than the notifier's queue holds, applied on this thread
+            for(int i = 0; i < 2 * NotificationBus.DEFAULT_CAPACITY; i++)
+            {
+                panel.stateHandler.apply(new Packet(610, "005"));
+                panel.stateHandler.apply(new Packet(609, "005"));
+            }
+            panel.stateHandler.apply(new Packet(601, "1005"));
+            slow.release.countDown();
+            slow.await(3);
+            assertEquals("[Zone 5 state: OPEN, Zone 5 state: OPEN, Zone 5 alarm: ALARM]", slow.got.toString());
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testSubscriberError() throws InterruptedException
+    {
+        final NotificationBus bus = new NotificationBus();
+        final List<String> got = new CopyOnWriteArrayList<>();
+        bus.subscribe(n -> {
+            if(n.msg.equals("fatal")) throw new AssertionError("subscriber error");
+            got.add(n.msg);
+        }, 16, NotificationBus.Overflow.BLOCK);
+        bus.publish(zone(1, "fatal"));
+        Thread.sleep(50);
+        bus.publish(zone(2, "after"));
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(got.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals("[after]", got.toString());
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException
+    {
+        final NotificationBus bus = new NotificationBus();
+        final Slow slow = new Slow();
+        final NotificationBus.Subscription sub = bus.subscribe(slow::accept, 2, NotificationBus.Overflow.DROP_OLDEST);
+        final List<String> all = new CopyOnWriteArrayList<>();
+        bus.subscribe(n -> all.add(n.msg), 100, NotificationBus.Overflow.BLOCK);
+        bus.publish(zone(1, "first"));
+        assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        for(int i = 0; i < 5; i++) bus.publish(zone(1, "n" + i));
+        assertEquals(3, sub.dropped());
+        slow.release.countDown();
+        slow.await(3);
+        assertEquals("[first, n3, n4]", slow.got.toString());
+        final long deadline = System.currentTimeMillis() + 5000;
+        while(all.size() < 6 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(6, all.size());
+    }
+
+    @Test
+    public void testPanelPublishes() throws InterruptedException
+    {
+        final List<Notification> got = new CopyOnWriteArrayList<>();
+        final DscPanel panel = new DscPanel();
+        try
+        {
+            panel.notifications().subscribe(got::add, 10, NotificationBus.Overflow.BLOCK);
+            panel.stateHandler.apply(new Packet(609, "001"));
+            panel.stateHandler.apply(new Packet(609, "002"));
+            final long deadline = System.currentTimeMillis() + 5000;
+            while(got.size() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            assertEquals("[1, 2]", got.stream().map(n -> String.valueOf(n.entity)).collect(Collectors.toList()).toString());
+        }
+        finally
+        {
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testFilters() throws InterruptedException
+    {
+        final NotificationBus bus = new NotificationBus(Runnable::run);
+        final List<String> zone12 = new CopyOnWriteArrayList<>(), opened = new CopyOnWriteArrayList<>(),
+                           partition1 = new CopyOnWriteArrayList<>(), alarms = new CopyOnWriteArrayList<>(),
+                           all = new CopyOnWriteArrayList<>();
+        bus.subscribe(NotificationBus.Filter.all().zones(12), n -> zone12.add(n.msg), 10, NotificationBus.Overflow.BLOCK);
+        bus.subscribe(NotificationBus.Filter.all().types(Notification.Type.ZONE).from(ZoneState.CLOSED).to(ZoneState.OPEN),
+                        n -> opened.add(n.msg), 10, NotificationBus.Overflow.BLOCK);
+        bus.subscribe(NotificationBus.Filter.all().partitions(1), n -> partition1.add(n.msg), 10, NotificationBus.Overflow.BLOCK);
+        final NotificationBus.Subscription sub = bus.subscribe(NotificationBus.Filter.all().types(Notification.Type.ALARM, Notification.Type.TROUBLE),
+                        n -> alarms.add(n.msg), 10, NotificationBus.Overflow.BLOCK);
+        bus.subscribe(n -> all.add(n.msg));
+
+        bus.publish(new Notification(Notification.Type.ZONE, new Date(), "z12 open", 609, 12, ZoneState.CLOSED, ZoneState.OPEN, true));
+        bus.publish(new Notification(Notification.Type.ZONE, new Date(), "z13 open", 609, 13, ZoneState.UNKNOWN, ZoneState.OPEN, true));
+        bus.publish(new Notification(Notification.Type.ZONE, new Date(), "z13 reopen", 609, 13, ZoneState.CLOSED, ZoneState.OPEN, true));
+        bus.publish(new Notification(Notification.Type.ARM, new Date(), "p1 ready", 650, 1, null, PartitionState.READY, true));
+        bus.publish(new Notification(Notification.Type.ALARM, new Date(), "fire", 621, Notification.NONE, AlarmState.NORMAL, AlarmState.ALARM, false));
+        sub.close();
+        bus.publish(new Notification(Notification.Type.TROUBLE, new Date(), "ac", 802, Notification.NONE, null, null, false));
+
+        assertEquals("[z12 open]", zone12.toString());
+        assertEquals("[z12 open, z13 reopen]", opened.toString());
+        assertEquals("[p1 ready]", partition1.toString());
+        assertEquals("[fire]", alarms.toString());
+        assertEquals(6, all.size());
+    }
+
+    @Test
+    public void testManySubscribersMatchWithoutAllocating()
+    {
+        final NotificationBus bus = new NotificationBus(Runnable::run);
+        final List<String> got = new CopyOnWriteArrayList<>();
+        for(int z = 1; z <= 150; z++)
+        {
+            final int zid = z;
+            bus.subscribe(NotificationBus.Filter.all().zones(z), n -> got.add(zid + ":" + n.msg), 10,
+                            NotificationBus.Overflow.BLOCK);
+        }
+        bus.publish(zone(130, "a"));
+        bus.publish(zone(3, "b"));
+        assertEquals("[130:a, 3:b]", got.toString());
+
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean);
+        final ThreadMXBean threads = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        // a zone nobody wants, so only the matching is measured
+        final Notification n = zone(500, "none");
+        for(int i = 0; i < 20000; i++) bus.publish(n);
+        final long tid = Thread.currentThread().getId(), before = threads.getThreadAllocatedBytes(tid);
+        for(int i = 0; i < 1000; i++) bus.publish(n);
+        final long perPublish = (threads.getThreadAllocatedBytes(tid) - before) / 1000;
+        assertTrue(perPublish + " bytes per publish", perPublish < 8);
+    }
+}
@@ -0,0 +1,89 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestPacketCodec
+{
+    private static final Packet PACKET = new Packet(654, "3");
+    private static final Packet PACKET1 = new Packet(609, "012");
+    private static final Packet PACKET2 = new Packet(500, "");
+
+    @Test
+    public void testSerialize()
+    {
+        assertEquals("6543D2", PACKET.serialize());
+        assertEquals("6543456789123456789F6", new Packet(654, "3456789123456789").serialize());
+        assertEquals("005jkfdhgfdhgjf6C", new Packet(005, "jkfdhgfdhgjf").serialize());
+    }
+
+    @Test
+    public void testByteRoundTrip() throws InvalidObjectException
+    {
+        final ByteBuffer buf = ByteBuffer.allocateDirect(64);
+        final MutablePacket mp = new MutablePacket(1);
+        for(Packet pkt : new Packet[]{PACKET, PACKET1, PACKET2})
+        {
+            buf.clear();
+            final int len = PacketCodec.encode(pkt, buf);
+            assertEquals(PacketCodec.encodedLength(pkt), len);
+            assertEquals(pkt, PacketCodec.decode(buf, 0, len, mp).toPacket());
+
+            final byte[] arr = new byte[len + 2];
+            assertEquals(len, PacketCodec.encode(pkt, arr, 2));
+            assertEquals(pkt, PacketCodec.decode(arr, 2, len));
+            assertEquals(pkt.serialize(), new String(arr, 2, len, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testParseInt() throws InvalidObjectException
+    {
+        final byte[] arr = PACKET1.serialize().getBytes(StandardCharsets.US_ASCII);
+        final MutablePacket mp = PacketCodec.decode(arr, 0, arr.length, new MutablePacket());
+        assertEquals(609, mp.getCmdCode());
+        assertEquals(12, mp.parseInt(0, 3));
+        assertEquals('1', mp.charAt(1));
+    }
+
+    @Test(expected = InvalidObjectException.class)
+    public void testBadChecksum() throws InvalidObjectException
+    {
+        Packet.deserialize("6543D3");
+    }
+
+    @Test(expected = InvalidObjectException.class)
+    public void testBadChecksumBytes() throws InvalidObjectException
+    {
+        final byte[] arr = "6543D3".getBytes(StandardCharsets.US_ASCII);
+        PacketCodec.decode(arr, 0, arr.length, new MutablePacket());
+    }
+
+    @Test
+    public void testBadChecksumKeepsPacket() throws InvalidObjectException
+    {
+        final MutablePacket mp = new MutablePacket();
+        final ByteBuffer buf = ByteBuffer.wrap("6543D26093FF".getBytes(StandardCharsets.US_ASCII));
+        PacketCodec.decode(buf, 0, 6, mp);
+        try
+        {
+            PacketCodec.decode(buf, 6, 6, mp);
+            fail("Bad checksum decoded");
+        }
+        catch(InvalidObjectException e)
+        {
+        }
+        assertEquals(PACKET, mp.toPacket());
+    }
+
+    @Test(expected = InvalidObjectException.class)
+    public void testTooShort() throws InvalidObjectException
+    {
+        Packet.deserialize("65");
+    }
+}
@@ -0,0 +1,94 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestPacketJournal
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static List<String> read(PacketJournal j, PacketJournal.Query q) throws IOException
+    {
+        final List<String> pkts = new ArrayList<>();
+        j.read(q, (ts, pkt) -> pkts.add(ts + ":" + pkt.serialize().trim()));
+        return pkts;
+    }
+
+    @Test
+    public void testQueriesSkipSegments() throws IOException
+    {
+        final File dir = tmp.newFolder();
+        try(PacketJournal j = new PacketJournal(dir, 8192))
+        {
+            // about 20 bytes a record, so a segment holds a couple of hundred
+            for(int i = 0; i < 1000; i++)
+                j.append(i, new Packet(i % 2 == 0 ? 609 : 610, String.format("%03d", i < 500 ? 1 + i % 8 : 12)));
+            j.append(1000, new Packet(650, "1"));
+            assertTrue(j.segments() > 4);
+
+            final PacketJournal.Query zone12 = new PacketJournal.Query(0, 2000).codes(609, 610).zone(12);
+            assertTrue(j.segments(zone12) < j.segments());
+            assertEquals(500, read(j, zone12).size());
+
+            final List<String> window = read(j, new PacketJournal.Query(600, 603).zone(12));
+            assertEquals(3, window.size());
+            assertTrue(window.get(0).startsWith("600:609012"));
+
+            assertEquals(1, read(j, new PacketJournal.Query(0, 2000).partition(1)).size());
+            assertEquals(0, read(j, new PacketJournal.Query(0, 2000).zone(13)).size());
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException
+    {
+        final File dir = tmp.newFolder();
+        try(PacketJournal j = new PacketJournal(dir, 8192))
+        {
+            j.append(1, new Packet(609, "001"));
+        }
+        try(PacketJournal j = new PacketJournal(dir, 8192))
+        {
+            j.append(2, new Packet(610, "001"));
+            assertEquals(2, read(j, new PacketJournal.Query(0, 10).zone(1)).size());
+            assertEquals(1, j.segments());
+        }
+    }
+
+    @Test
+    public void testDeleteWhileReading() throws IOException
+    {
+        try(PacketJournal j = new PacketJournal(tmp.newFolder(), 8192))
+        {
+            for(int i = 0; i < 1000; i++) j.append(i, new Packet(609, "001"));
+            final int[] n = new int[1];
+            j.read(new PacketJournal.Query(0, 1000), (ts, pkt) -> {
+                if(n[0]++ == 0) assertTrue(j.deleteBefore(1000) > 0);
+            });
+            assertEquals(1000, n[0]);
+        }
+    }
+
+    @Test
+    public void testDeleteBefore() throws IOException
+    {
+        try(PacketJournal j = new PacketJournal(tmp.newFolder(), 8192))
+        {
+            for(int i = 0; i < 1000; i++) j.append(i, new Packet(609, "001"));
+            final int segments = j.segments();
+            assertTrue(j.deleteBefore(500) > 0);
+            assertTrue(j.segments() < segments);
+            assertEquals(0, read(j, new PacketJournal.Query(0, 400)).size());
+            assertEquals(500, read(j, new PacketJournal.Query(500, 1000)).size());
+        }
+    }
+}
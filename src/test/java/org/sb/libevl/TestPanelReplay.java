@@ -0,0 +1,99 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestPanelReplay
+{
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path capture(int panel) throws IOException
+    {
+        final List<String> lines = new ArrayList<>();
+        for(int z = 1; z <= 64; z++) lines.add(new Packet(609, String.format("%03d", z)).serialize());
+        for(int z = 1; z <= 64; z++) if(z % (panel + 2) != 0) lines.add(new Packet(610, String.format("%03d", z)).serialize());
+        lines.add("60900100");
+        lines.add("");
+        lines.add(new Packet(652, "10").serialize());
+        lines.add(new Packet(510, "81").serialize());
+        final Path file = tmp.newFile("panel" + panel + ".cap").toPath();
+        Files.write(file, lines, StandardCharsets.ISO_8859_1);
+        return file;
+    }
+
+    @Test
+    public void testRebuildInParallel() throws IOException
+    {
+        final Map<Integer, Path> captures = new HashMap<>();
+        for(int i = 0; i < 4; i++) captures.put(i, capture(i));
+        final List<Notification> notes = new ArrayList<>();
+        final Map<Integer, DscPanel> panels = PanelReplay.rebuild(captures, () -> new DscPanel(notes::add),
+                                                                   new ForkJoinPool(4));
+        assertEquals(4, panels.size());
+        for(int i = 0; i < 4; i++)
+        {
+            final DscPanel panel = panels.get(i);
+            assertEquals(64 / (i + 2), panel.openZoneSet().cardinality());
+            assertEquals(64, panel.zones().count());
+            assertTrue(panel.getPartition(1).get().contains("ARMED"));
+            assertTrue(panel.getKeypadLeds().contains("\"READY\" : \"ON\""));
+            panel.close();
+        }
+        assertTrue(notes.isEmpty());
+    }
+
+    @Test
+    public void testReplayJournal() throws IOException
+    {
+        try(PacketJournal j = new PacketJournal(tmp.newFolder(), 1 << 16))
+        {
+            j.append(1, new Packet(609, "005"));
+            j.append(2, new Packet(609, "006"));
+            j.append(3, new Packet(999, ""));
+            j.append(4, new Packet(610, "005"));
+            final DscPanel panel = new DscPanel();
+            assertEquals(3, PanelReplay.replay(panel, j, new PacketJournal.Query(0, 10)));
+            assertEquals(1, panel.unhandledCount(999));
+            assertEquals(6, panel.openZoneSet().nextSetBit(0));
+            assertEquals(2, panel.zones().count());
+            panel.close();
+        }
+    }
+
+    @Test
+    public void testReplayKeepsEventTimes() throws IOException
+    {
+        try(PacketJournal j = new PacketJournal(tmp.newFolder(), 1 << 16))
+        {
+            j.append(1000, new Packet(609, "005"));
+            j.append(2000, new Packet(701, "1"));
+            j.append(3000, new Packet(663, "1"));
+            final DscPanel panel = new DscPanel();
+            final long version = panel.snapshot().getVersion();
+            assertEquals(3, PanelReplay.replay(panel, j, new PacketJournal.Query(0, 10000)));
+            // one snapshot for the whole replay
+            assertEquals(version + 1, panel.snapshot().getVersion());
+            assertEquals(Arrays.asList(new Date(2000), new Date(3000)),
+                         panel.events(1).map(Entry::getKey).collect(Collectors.toList()));
+            panel.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestPendingCommands
+{
+    @Test
+    public void testBlockedWriterStallsNoOne() throws Exception
+    {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final ExecutorService stuckSender = EvlExecutors.platform().newSingleThreadExecutor("evl-test-stuck-");
+        final ExecutorService sender = EvlExecutors.platform().newSingleThreadExecutor("evl-test-");
+        try
+        {
+            // a socket that cannot be written
+            final PendingCommands stuck = new PendingCommands(pkt -> {
+                try
+                {
+                    unblock.await();
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }, stuckSender, 1, 100);
+            stuck.submit(new Packet(1, ""));
+            Thread.sleep(50);
+            final long start = System.nanoTime();
+            assertFalse(stuck.ack(2, new Packet(500, "002")));
+            assertTrue("ack blocked", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+
+            final PendingCommands other = new PendingCommands(pkt -> {}, sender, 1, 100);
+            final CompletableFuture<Packet> timesOut = other.submit(new Packet(1, ""));
+            try
+            {
+                timesOut.get(5, TimeUnit.SECONDS);
+                fail("Acknowledged without an ack");
+            }
+            catch(ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            final CompletableFuture<Packet> acked = other.submit(new Packet(2, ""));
+            Thread.sleep(20);
+            assertTrue(other.ack(2, new Packet(500, "002")));
+            assertEquals("002", acked.get(5, TimeUnit.SECONDS).getData());
+        }
+        finally
+        {
+            unblock.countDown();
+            stuckSender.shutdown();
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void testWriteFailsOnSameThreadSender() throws Exception
+    {
+        final PendingCommands pending = new PendingCommands(pkt -> {
+            throw new IOException("broken pipe");
+        }, Runnable::run, 1, 2000);
+        final CompletableFuture<Packet> failed = pending.submit(new Packet(1, ""));
+        assertTrue(failed.isCompletedExceptionally());
+        try
+        {
+            failed.get();
+            fail("Write did not fail");
+        }
+        catch(ExecutionException e)
+        {
+            assertEquals("broken pipe", e.getCause().getMessage());
+        }
+        assertEquals(0, pending.inFlight());
+    }
+}
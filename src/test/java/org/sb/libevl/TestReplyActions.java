@@ -0,0 +1,46 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestReplyActions
+{
+    private static final PacketFlow CODE = new PacketFlow(new Packet(200, "1234"));
+
+    @Test
+    public void testIndexedByCode()
+    {
+        final ReplyActions ra = new ReplyActions(1, TimeUnit.MINUTES);
+        final PacketFlow flow = new PacketFlow(new Packet(30, "1"), new int[]{900, 922}, () -> CODE.getPkt());
+        ra.register(flow.getReplyAction().get(), flow.replyCodes());
+        assertEquals(1, ra.size());
+        assertNull(ra.take(new Packet(609, "001")));
+        assertNotNull(ra.take(new Packet(922, "")));
+        assertNull(ra.take(new Packet(900, "")));
+        assertEquals(0, ra.size());
+    }
+
+    @Test
+    public void testUnindexedPredicate()
+    {
+        final ReplyActions ra = new ReplyActions(1, TimeUnit.MINUTES);
+        final PacketFlow flow = new PacketFlow(new Packet(30, "1"), pkt -> pkt.getData().equals("x"), () -> CODE.getPkt());
+        ra.register(flow.getReplyAction().get(), flow.replyCodes());
+        assertNull(ra.take(new Packet(609, "001")));
+        assertNotNull(ra.take(new Packet(609, "x")));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException
+    {
+        final ReplyActions ra = new ReplyActions(1, TimeUnit.MILLISECONDS);
+        final PacketFlow flow = new PacketFlow(new Packet(30, "1"), new int[]{900}, () -> CODE.getPkt());
+        ra.register(flow.getReplyAction().get(), flow.replyCodes());
+        Thread.sleep(5);
+        assertNull(ra.take(new Packet(900, "")));
+        assertEquals(0, ra.size());
+    }
+}
@@ -0,0 +1,53 @@
+package org.sb.libevl;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestSendPacer
+{
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testBucket()
+    {
+        final SendPacer pacer = new SendPacer(1, 100, 2);
+        final long start = System.nanoTime();
+        assertEquals(0, pacer.reserve(start));
+        assertEquals(0, pacer.reserve(start));
+        // empty, a token is due every 10ms
+        assertEquals(10 * MS, pacer.reserve(start), MS / 100);
+        assertEquals(5 * MS, pacer.reserve(start + 5 * MS), MS / 100);
+        assertEquals(0, pacer.reserve(start + 10 * MS));
+        // a quiet spell only fills the bucket up to the burst
+        assertEquals(0, pacer.reserve(start + 1000 * MS));
+        assertEquals(0, pacer.reserve(start + 1000 * MS));
+        assertTrue(pacer.reserve(start + 1000 * MS) > 0);
+    }
+
+    @Test
+    public void testAimd()
+    {
+        final SendPacer pacer = new SendPacer(10, 100, 10);
+        long now = System.nanoTime();
+        pacer.overloaded(now);
+        assertEquals(50, pacer.rate(), 0);
+        assertTrue("bucket emptied", pacer.reserve(now) > 0);
+        // errors set off by the same commands count once
+        pacer.overloaded(now + MS);
+        assertEquals(50, pacer.rate(), 0);
+        pacer.overloaded(now += 20 * MS);
+        assertEquals(25, pacer.rate(), 0);
+        for(int i = 0; i < 5; i++) pacer.overloaded(now += 1000 * MS);
+        assertEquals(10, pacer.rate(), 0);
+
+        pacer.acked(MS, now);
+        assertEquals(11, pacer.rate(), 0);
+        for(int i = 0; i < 1000; i++) pacer.acked(MS, now);
+        assertEquals(100, pacer.rate(), 0);
+        pacer.acked(SendPacer.SLOW_ACK_NANOS + MS, now += 1000 * MS);
+        assertEquals(50, pacer.rate(), 0);
+    }
+}